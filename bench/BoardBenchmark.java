@@ -0,0 +1,362 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of the board evaluation.
+ * It measures the moves and captures counting per piece type, the evaluation of the whole board
+ * and the whole parse, evaluate and write pipeline of Main in the text and binary formats
+ * for every board size and density.
+ * Every board size is measured in several forked JVMs with the options of this one, so the profile
+ * and the compilation of one benchmark do not leak into another, and the mean time of the forks
+ * is reported with the half of their range. Every measured iteration returns a value depending
+ * on its results, which is consumed into a checksum printed at the end, so the measured code can not be
+ * eliminated as dead. Run it from the project directory with
+ * {@code javac -d out src/Main.java bench/BoardBenchmark.java && java -cp out BoardBenchmark [sizes]}.
+ */
+public final class BoardBenchmark {
+    /**
+     * sizes of the measured boards.
+     */
+    private static final int[] SIZES = {3, 100, 1000};
+    /**
+     * names of the measured densities.
+     */
+    private static final String[] DENSITIES = {"2 pieces", "1%", "50%", "full"};
+    /**
+     * percents of the occupied squares of the densities, 0 means only the kings.
+     */
+    private static final int[] DENSITY_PERCENTS = {0, 1, 50, 100};
+    /**
+     * number of the warm-up iterations of every benchmark.
+     */
+    private static final int WARMUP_ITERATIONS = 5;
+    /**
+     * number of the measured iterations of every benchmark.
+     */
+    private static final int MEASURED_ITERATIONS = 10;
+    /**
+     * seed of the generated positions.
+     */
+    private static final long SEED = 42;
+    /**
+     * number of percents in the whole.
+     */
+    private static final int PERCENTS = 100;
+    /**
+     * nanoseconds in one millisecond.
+     */
+    private static final double NANOS_IN_MILLI = 1e6;
+    /**
+     * number of the forked JVMs measuring every board size.
+     */
+    private static final int FORKS = 3;
+    /**
+     * command line option running the benchmarks of one board size in a forked JVM.
+     */
+    private static final String FORK_OPTION = "--fork";
+    /**
+     * prefix of the checksum line printed by the forked JVM.
+     */
+    private static final String CHECKSUM_PREFIX = "checksum ";
+    /**
+     * separator of the values of a result line printed by the forked JVM.
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * sum of all measured values, printed so that the measured code is not eliminated.
+     */
+    private static long sink;
+
+    private BoardBenchmark() {
+    }
+
+    /**
+     * Main method of the benchmark.
+     *
+     * @param args command line arguments, optionally the board sizes to measure
+     * @throws IOException          if the temporary files can not be written or a fork can not be started
+     * @throws InterruptedException if the waiting for a fork is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals(FORK_OPTION)) {
+            runFork(Integer.parseInt(args[1]));
+            return;
+        }
+        int[] sizes = SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-6s %-9s %-32s %12s %10s %14s%n", "size", "density", "benchmark", "ms/op", "+-ms",
+                "ns/piece");
+        for (int size : sizes) {
+            Map<String, double[]> forkNanos = new LinkedHashMap<>();
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int fork = 0; fork < FORKS; fork++) {
+                for (String line : fork(size)) {
+                    if (line.startsWith(CHECKSUM_PREFIX)) {
+                        sink += Long.parseLong(line.substring(CHECKSUM_PREFIX.length()));
+                        continue;
+                    }
+                    String[] values = line.split(SEPARATOR);
+                    String key = values[0] + SEPARATOR + values[1];
+                    counts.put(key, Integer.parseInt(values[2]));
+                    forkNanos.computeIfAbsent(key, k -> new double[FORKS])[fork] = Double.parseDouble(values[3]);
+                }
+            }
+            for (Map.Entry<String, double[]> entry : forkNanos.entrySet()) {
+                String[] key = entry.getKey().split(SEPARATOR);
+                report(size, key[0], key[1], counts.get(entry.getKey()), entry.getValue());
+            }
+        }
+        System.out.println(CHECKSUM_PREFIX + sink);
+    }
+
+    /**
+     * Method for running the benchmarks of one board size in a forked JVM with the options of this one.
+     *
+     * @param size the size of the board
+     * @return the result lines and the checksum line printed by the fork
+     * @throws IOException          if the fork can not be started or fails
+     * @throws InterruptedException if the waiting for the fork is interrupted
+     */
+    private static List<String> fork(int size) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BoardBenchmark.class.getName());
+        command.add(FORK_OPTION);
+        command.add(Integer.toString(size));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("the fork measuring the size " + size + " failed");
+        }
+        return lines;
+    }
+
+    /**
+     * Method for running all benchmarks of one board size in the forked JVM.
+     * Every result is printed as a line of the density, the benchmark, the number of evaluated pieces
+     * and the average time of one iteration, followed by the checksum line.
+     *
+     * @param size the size of the board
+     * @throws IOException if the temporary files can not be written
+     */
+    private static void runFork(int size) throws IOException {
+        Path directory = Files.createTempDirectory("chess-benchmark");
+        for (int density = 0; density < DENSITIES.length; density++) {
+            List<ChessPiece> pieces = generate(size, DENSITY_PERCENTS[density]);
+            runAll(size, DENSITIES[density], pieces, directory);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        System.out.println(CHECKSUM_PREFIX + sink);
+    }
+
+    /**
+     * Method for running all benchmarks of one position.
+     *
+     * @param size      the size of the board
+     * @param density   the name of the density
+     * @param pieces    the pieces of the position
+     * @param directory the directory for the temporary files
+     * @throws IOException if the temporary files can not be written
+     */
+    private static void runAll(int size, String density, List<ChessPiece> pieces, Path directory)
+            throws IOException {
+        GridBoard board = new GridBoard(size);
+        for (ChessPiece piece : pieces) {
+            board.addPiece(piece);
+        }
+        board.buildBlockerIndex();
+        for (PieceType type : PieceType.values()) {
+            List<ChessPiece> typed = new ArrayList<>();
+            for (ChessPiece piece : pieces) {
+                if (piece.getType() == type) {
+                    typed.add(piece);
+                }
+            }
+            if (typed.isEmpty()) {
+                continue;
+            }
+            print(density, type.getName() + " moves and captures", typed.size(), measure(() -> {
+                long sum = 0;
+                for (ChessPiece piece : typed) {
+                    sum += board.getPiecePossibleMovesCount(piece) + board.getPiecePossibleCapturesCount(piece);
+                }
+                return sum;
+            }));
+        }
+        int[] results = new int[2 * pieces.size()];
+        print(density, "evaluateAll", pieces.size(), measure(() -> {
+            board.evaluateAll(results);
+            return results[0];
+        }));
+        print(density, "evaluateAllParallel", pieces.size(), measure(() -> {
+            board.evaluateAllParallel(results);
+            return results[0];
+        }));
+        print(density, "buildAttackMap", pieces.size(), measure(() -> {
+            AttackMap attackMap = board.buildAttackMap();
+            return attackMap.getAttackersCount(1, 1, PieceColor.WHITE);
+        }));
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        writeInput(input, size, pieces);
+        print(density, "parse, evaluate and write", pieces.size(), measure(() -> {
+            Main.solve(input.toString(), output.toString());
+            return Files.size(output);
+        }));
+        Path binaryInput = directory.resolve("input.bin");
+        Path binaryOutput = directory.resolve("output.bin");
+        BinaryFormat.toBinary(input.toString(), binaryInput.toString());
+        print(density, "binary parse, evaluate and write", pieces.size(), measure(() -> {
+            BinaryFormat.solve(binaryInput.toString(), binaryOutput.toString());
+            return Files.size(binaryOutput);
+        }));
+    }
+
+    /**
+     * Method for measuring the average time of the benchmark after the warm-up.
+     *
+     * @param benchmark the measured code
+     * @return the average time of one iteration in nanoseconds
+     * @throws IOException if the measured code fails
+     */
+    private static double measure(Measured benchmark) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += benchmark.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += benchmark.run();
+        }
+        return (double) (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    /**
+     * Method for printing one result of the forked JVM for the parent one.
+     *
+     * @param density   the name of the density
+     * @param benchmark the name of the benchmark
+     * @param count     the number of evaluated pieces
+     * @param nanos     the average time of one iteration in nanoseconds
+     */
+    private static void print(String density, String benchmark, int count, double nanos) {
+        System.out.println(density + SEPARATOR + benchmark + SEPARATOR + count + SEPARATOR + nanos);
+    }
+
+    /**
+     * Method for reporting one result as the mean of the forks and the half of their range.
+     *
+     * @param size      the size of the board
+     * @param density   the name of the density
+     * @param benchmark the name of the benchmark
+     * @param count     the number of evaluated pieces
+     * @param forkNanos the average times of one iteration in every fork in nanoseconds
+     */
+    private static void report(int size, String density, String benchmark, int count, double[] forkNanos) {
+        double nanos = Arrays.stream(forkNanos).average().orElse(0);
+        double error = (Arrays.stream(forkNanos).max().orElse(0) - Arrays.stream(forkNanos).min().orElse(0)) / 2;
+        System.out.printf("%-6d %-9s %-32s %12.3f %10.3f %14.1f%n", size, density, benchmark,
+                nanos / NANOS_IN_MILLI, error / NANOS_IN_MILLI, nanos / count);
+    }
+
+    /**
+     * Method for generating a valid position.
+     * The kings are always present, the other squares of the density are filled with random pieces.
+     *
+     * @param size    the size of the board
+     * @param percent the percent of the occupied squares
+     * @return the pieces of the position
+     */
+    private static List<ChessPiece> generate(int size, int percent) {
+        Random random = new Random(SEED);
+        int squares = size * size;
+        int count = Math.max(2, (int) ((long) squares * percent / PERCENTS));
+        int[] order = new int[squares];
+        for (int i = 0; i < squares; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(squares - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        PieceType[] others = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT, PieceType.PAWN};
+        List<ChessPiece> pieces = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PiecePosition position = new PiecePosition(order[i] % size + 1, order[i] / size + 1);
+            PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+            PieceType type = others[random.nextInt(others.length)];
+            if (i < 2) {
+                color = i == 0 ? PieceColor.WHITE : PieceColor.BLACK;
+                type = PieceType.KING;
+            }
+            pieces.add(ChessPiece.create(type, position, color));
+        }
+        return pieces;
+    }
+
+    /**
+     * Method for writing the position in the input format of Main.
+     *
+     * @param input  the input file
+     * @param size   the size of the board
+     * @param pieces the pieces of the position
+     * @throws IOException if the file can not be written
+     */
+    private static void writeInput(Path input, int size, List<ChessPiece> pieces) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(input, StandardCharsets.US_ASCII))) {
+            writer.println(size);
+            writer.println(pieces.size());
+            for (ChessPiece piece : pieces) {
+                writer.println(piece.getType().getName() + " " + piece.getColor().getName() + " "
+                        + piece.getPosition().getX() + " " + piece.getPosition().getY());
+            }
+        }
+    }
+
+    /**
+     * Interface for the measured code.
+     */
+    private interface Measured {
+        /**
+         * Method for running one iteration.
+         *
+         * @return a value depending on the work done
+         * @throws IOException if the iteration fails
+         */
+        long run() throws IOException;
+    }
+}
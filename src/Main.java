@@ -1,495 +1,6679 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.HashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Main class of the program.
  */
 public final class Main {
 
+    /**
+     * system property selecting the evaluation: parallel, sequential or auto.
+     */
+    private static final String EVALUATION_PROPERTY = "chess.evaluation";
+    /**
+     * command line option of the batch mode.
+     */
+    private static final String BATCH_OPTION = "--batch";
+    /**
+     * command line option of the server mode.
+     */
+    private static final String SERVER_OPTION = "--server";
+    /**
+     * command line option of the streaming mode.
+     */
+    private static final String STREAM_OPTION = "--stream";
+    /**
+     * command line option of the evaluation of the binary position into the binary results.
+     */
+    private static final String BINARY_OPTION = "--binary";
+    /**
+     * command line option of the conversion of the text position into the binary one.
+     */
+    private static final String TO_BINARY_OPTION = "--to-binary";
+    /**
+     * command line option of the conversion of the binary position or results into the text ones.
+     */
+    private static final String TO_TEXT_OPTION = "--to-text";
+    /**
+     * minimum size of the board.
+     */
+    static final int MIN_BOARD_SIZE = 3;
+    /**
+     * system property overriding the maximum size of the board.
+     */
+    private static final String MAX_BOARD_SIZE_PROPERTY = "chess.maxBoardSize";
+    /**
+     * default maximum size of the board.
+     */
+    private static final int DEFAULT_MAX_BOARD_SIZE = 1000;
+    /**
+     * minimum number of the pieces.
+     */
+    private static final int MIN_PIECES_COUNT = 2;
     /**
      * variable for Board class.
      *
      * @see Board
      */
     private static Board chessBoard;
+    /**
+     * cache of the evaluation results shared by the reusable boards.
+     */
+    private static final EvaluationCache EVALUATION_CACHE = EvaluationCache.create();
     private Main() {
     }
 
     /**
      * Main method.
+     * Without arguments it evaluates input.txt into output.txt,
+     * with "--batch input output" it evaluates many positions in one launch,
+     * with "--server address" it evaluates the positions sent over a local socket,
+     * with "--stream input output" it evaluates a position too large for the memory band by band,
+     * with "--binary input output" it evaluates the binary position into the binary results,
+     * with "--to-binary input output" it validates the text position and converts it into the binary one
+     * and with "--to-text input output" it converts the binary position or results into the text ones.
      *
      * @param args command line arguments
      */
     public static void main(String[] args) throws IOException {
-        InvalidBoardSizeException invalidBoardSizeException = new InvalidBoardSizeException();
-        InvalidNumberOfPiecesException invalidNumberOfPiecesException = new InvalidNumberOfPiecesException();
-        InvalidPieceNameException invalidPieceNameException = new InvalidPieceNameException();
-        InvalidPieceColorException invalidPieceColorException = new InvalidPieceColorException();
-        InvalidPiecePositionException invalidPiecePositionException = new InvalidPiecePositionException();
-        InvalidGivenKingsException invalidGivenKingsException = new InvalidGivenKingsException();
-        InvalidInputException invalidInputException = new InvalidInputException();
-        Scanner input = new Scanner(new FileInputStream("input.txt"));
-        FileOutputStream output = new FileOutputStream("output.txt");
+        final int batchArguments = 3;
+        if (args.length == batchArguments && args[0].equals(BATCH_OPTION)) {
+            solveBatch(args[1], args[2]);
+            return;
+        }
+        if (args.length == batchArguments && args[0].equals(STREAM_OPTION)) {
+            StreamingEvaluator.solve(args[1], args[2]);
+            return;
+        }
+        if (args.length == batchArguments && args[0].equals(BINARY_OPTION)) {
+            BinaryFormat.solve(args[1], args[2]);
+            return;
+        }
+        if (args.length == batchArguments && args[0].equals(TO_BINARY_OPTION)) {
+            Exception error = BinaryFormat.toBinary(args[1], args[2]);
+            if (error != null) {
+                System.err.println(error.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length == batchArguments && args[0].equals(TO_TEXT_OPTION)) {
+            BinaryFormat.toText(args[1], args[2]);
+            return;
+        }
+        if (args.length == 2 && args[0].equals(SERVER_OPTION)) {
+            new EvaluationServer(args[1]).serve();
+            return;
+        }
+        solve("input.txt", "output.txt");
+    }
+
+    /**
+     * Method for evaluating the position of the input file into the output file.
+     *
+     * @param inputFileName  the name of the input file
+     * @param outputFileName the name of the output file
+     * @throws IOException if the files can not be read or written
+     */
+    static void solve(String inputFileName, String outputFileName) throws IOException {
+        chessBoard = Board.create(MIN_BOARD_SIZE);
+        Exception error;
+        try (InputTokenizer input = InputTokenizer.open(inputFileName)) {
+            error = readPosition(input, chessBoard);
+        }
+        OutputWriter output = OutputWriter.open(outputFileName);
+        if (error != null) {
+            exitWithError(output, error);
+        }
+        try {
+            writeResults(output, chessBoard, new int[2 * chessBoard.getPiecesCount()]);
+            output.close();
+        } catch (java.lang.Exception e) {
+            exitWithError(output, new InvalidInputException());
+        }
+    }
+
+    /**
+     * Method for evaluating many positions in one launch.
+     * If the input is a directory, every file in it is a position and its results are written
+     * into the file with the same name in the output directory.
+     * Otherwise the input file holds the positions separated by empty lines,
+     * and the results of every position are followed by an empty line in the output file.
+     * An invalid position gets its error message instead of the results, the other positions are still evaluated.
+     * The statistics of the shared cache are printed at the end if they are enabled,
+     * see {@link EvaluationCache#STATISTICS_PROPERTY}.
+     *
+     * @param inputName  the name of the input file or directory
+     * @param outputName the name of the output file or directory
+     * @throws IOException if the files can not be read or written
+     */
+    static void solveBatch(String inputName, String outputName) throws IOException {
+        Path inputPath = Paths.get(inputName);
+        Board board = createBoard();
+        int[] results = new int[0];
+        if (Files.isDirectory(inputPath)) {
+            Path outputPath = Paths.get(outputName);
+            Files.createDirectories(outputPath);
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(inputPath)) {
+                files = listing.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                try (InputTokenizer input = InputTokenizer.open(file.toString());
+                     OutputWriter output = OutputWriter.open(outputPath.resolve(file.getFileName()).toString())) {
+                    results = evaluatePosition(input, output, board, results, false);
+                }
+            }
+            reportCacheStatistics();
+            return;
+        }
+        try (InputTokenizer input = InputTokenizer.open(inputName);
+             OutputWriter output = OutputWriter.open(outputName)) {
+            input.splitRecords();
+            while (input.nextRecord()) {
+                results = evaluatePosition(input, output, board, results, true);
+                output.printByte('\n');
+            }
+        }
+        reportCacheStatistics();
+    }
+
+    /**
+     * Method for evaluating one position of the batch or of the server.
+     *
+     * @param input   the input tokenizer
+     * @param output  the output writer
+     * @param board   the reusable board
+     * @param buffer  the reusable buffer of the results
+     * @param record  whether the position is a record of a file, so the error message ends with a line break
+     * @return the buffer of the results, reallocated if the position has more pieces
+     * @throws IOException if the output can not be written
+     */
+    static int[] evaluatePosition(InputTokenizer input, OutputWriter output, Board board, int[] buffer,
+                                  boolean record) throws IOException {
+        Exception error = readPosition(input, board);
+        if (error != null) {
+            output.print(error.getMessage());
+            if (record) {
+                output.printByte('\n');
+            }
+            return buffer;
+        }
+        int[] results = buffer;
+        if (results.length < 2 * board.getPiecesCount()) {
+            results = new int[2 * board.getPiecesCount()];
+        }
+        writeResults(output, board, results);
+        return results;
+    }
+
+    /**
+     * Method for creating a reusable board, cleared and resized by every read position.
+     * The reusable boards share the cache of the evaluation results, so the repeated positions
+     * of the batch and of the server are not evaluated again.
+     *
+     * @return the empty board
+     */
+    static Board createBoard() {
+        Board board = Board.create(MIN_BOARD_SIZE);
+        board.setCache(EVALUATION_CACHE);
+        return board;
+    }
+
+    /**
+     * Method for getting the cache of the evaluation results shared by the reusable boards.
+     *
+     * @return the cache or null if it is disabled by the budget property
+     */
+    static EvaluationCache getEvaluationCache() {
+        return EVALUATION_CACHE;
+    }
+
+    /**
+     * Method for printing the statistics of the shared cache to the standard error
+     * if they are enabled by the statistics property and the cache is not disabled.
+     */
+    static void reportCacheStatistics() {
+        if (EVALUATION_CACHE != null && Boolean.getBoolean(EvaluationCache.STATISTICS_PROPERTY)) {
+            System.err.println(EVALUATION_CACHE.getStatistics());
+        }
+    }
+
+    /**
+     * Method for reading and validating one position into the board.
+     * The board is cleared and resized for the position.
+     *
+     * @param input the text or binary source of the position
+     * @param board the board or another receiver of the pieces
+     * @return null if the position is valid, otherwise the exception of the first found error
+     */
+    static Exception readPosition(PositionInput input, PieceSink board) {
         try {
             int n = input.nextInt();
-            final int minBoardSize = 3;
-            final int maxBoardSize = 1000;
-            if (n < minBoardSize || n > maxBoardSize) {
-                output.write(invalidBoardSizeException.getMessage().getBytes());
-                System.exit(0);
+            if (n < MIN_BOARD_SIZE || n > getMaxBoardSize()) {
+                return new InvalidBoardSizeException();
             }
             int m = input.nextInt();
-            final int minPiecesCount = 2;
-            if (m < minPiecesCount || m > n * n) {
-                output.write(invalidNumberOfPiecesException.getMessage().getBytes());
-                System.exit(0);
+            if (m < MIN_PIECES_COUNT || m > (long) n * n) {
+                return new InvalidNumberOfPiecesException();
             }
-            chessBoard = new Board(n);
+            board.clear(n, m);
             int countOfBlackKings = 0;
             int countOfWhiteKings = 0;
-            ChessPiece[] pieces = new ChessPiece[m];
             for (int i = 0; i < m; i++) {
-                String pieceType = input.next();
-                String color = input.next();
-                ChessPiece piece = null;
-                if (PieceColor.parse(color) == null) {
-                    output.write(invalidPieceColorException.getMessage().getBytes());
-                    System.exit(0);
+                PieceType pieceType = input.nextPieceType();
+                PieceColor color = input.nextPieceColor();
+                if (color == null) {
+                    return new InvalidPieceColorException();
                 }
                 int x = input.nextInt();
                 int y = input.nextInt();
-                PiecePosition piecePosition = new PiecePosition(x, y);
-                switch (pieceType) {
-                    case "Knight":
-                        piece = new Knight(piecePosition, PieceColor.parse(color));
-                        break;
-                    case "King":
-                        piece = new King(piecePosition, PieceColor.parse(color));
-                        if (PieceColor.parse(color) == PieceColor.WHITE) {
-                            countOfWhiteKings++;
-                        } else {
-                            countOfBlackKings++;
-                        }
-                        break;
-                    case "Pawn":
-                        piece = new Pawn(piecePosition, PieceColor.parse(color));
-                        break;
-                    case "Bishop":
-                        piece = new Bishop(piecePosition, PieceColor.parse(color));
-                        break;
-                    case "Rook":
-                        piece = new Rook(piecePosition, PieceColor.parse(color));
-                        break;
-                    case "Queen":
-                        piece = new Queen(piecePosition, PieceColor.parse(color));
-                        break;
-                    default:
-                        output.write(invalidPieceNameException.getMessage().getBytes());
-                        System.exit(0);
+                if (pieceType == null) {
+                    return new InvalidPieceNameException();
+                }
+                if (pieceType == PieceType.KING) {
+                    if (color == PieceColor.WHITE) {
+                        countOfWhiteKings++;
+                    } else {
+                        countOfBlackKings++;
+                    }
                 }
-                pieces[i] = piece;
                 if (x < 1 || x > n || y < 1 || y > n) {
-                    output.write(invalidPiecePositionException.getMessage().getBytes());
-                    System.exit(0);
+                    return new InvalidPiecePositionException();
                 }
-                if (chessBoard.getPiece(piecePosition) == null) {
-                    chessBoard.addPiece(piece);
+                if (!board.isOccupied(x, y)) {
+                    board.addPiece(pieceType, color, x, y);
                 } else {
-                    output.write(invalidPiecePositionException.getMessage().getBytes());
-                    System.exit(0);
+                    return new InvalidPiecePositionException();
                 }
             }
             if (input.hasNext()) {
-                output.write(invalidNumberOfPiecesException.getMessage().getBytes());
-                System.exit(0);
+                return new InvalidNumberOfPiecesException();
             }
             if (countOfWhiteKings != 1 || countOfBlackKings != 1) {
-                output.write(invalidGivenKingsException.getMessage().getBytes());
-                System.exit(0);
-            }
-            for (ChessPiece piece : pieces) {
-                output.write((chessBoard.getPiecePossibleMovesCount(piece) + " "
-                        + chessBoard.getPiecePossibleCapturesCount(piece) + "\n").getBytes());
+                return new InvalidGivenKingsException();
             }
+            return null;
         } catch (java.lang.Exception e) {
-            output.write(invalidInputException.getMessage().getBytes());
-            System.exit(0);
+            return new InvalidInputException();
         }
     }
 
-}
-
-/**
- * enumeration of colors of the pieces.
- */
-enum PieceColor {
     /**
-     * The color of the white piece.
+     * Method for getting the maximum size of the board.
+     * It may be raised by the maximum board size property up to the largest supported size,
+     * the large boards are kept off the heap or sparse, see {@link Board#STORAGE_PROPERTY}.
+     *
+     * @return the maximum size of the board
      */
-    WHITE,
+    static int getMaxBoardSize() {
+        return Math.min(Integer.getInteger(MAX_BOARD_SIZE_PROPERTY, DEFAULT_MAX_BOARD_SIZE), Board.MAX_SIZE);
+    }
+
     /**
-     * The color of the black piece.
+     * Method for evaluating the board and writing the moves and captures of every piece.
+     *
+     * @param output  the output writer
+     * @param board   the evaluated board
+     * @param results the buffer for the results, at least two values per piece
+     * @throws IOException if the output can not be written
      */
-    BLACK;
+    private static void writeResults(OutputWriter output, Board board, int[] results) throws IOException {
+        int m = board.getPiecesCount();
+        evaluate(board, results);
+        for (int i = 0; i < m; i++) {
+            output.printInt(results[2 * i]);
+            output.printByte(' ');
+            output.printInt(results[2 * i + 1]);
+            output.printByte('\n');
+        }
+    }
 
     /**
-     * Method for parsing the color of the piece.
+     * Method for evaluating the board sequentially or in parallel, as chosen by the evaluation property.
      *
-     * @param color the color of the piece
-     * @return the color of the piece
+     * @param board   the evaluated board
+     * @param results the buffer for the results, at least two values per piece
      */
-    public static PieceColor parse(String color) {
-        if (color.equals("White")) {
-            return WHITE;
-        } else if (color.equals("Black")) {
-            return BLACK;
+    static void evaluate(Board board, int[] results) {
+        if (isParallelEvaluation(board.getPiecesCount())) {
+            board.evaluateAllParallel(results);
         } else {
-            return null;
+            board.evaluateAll(results);
+        }
+    }
+
+    /**
+     * Method for choosing between the sequential and the parallel evaluation.
+     * The evaluation property may be "parallel", "sequential" or "auto",
+     * the auto mode evaluates in parallel large boards on machines with several cores.
+     *
+     * @param piecesCount the number of pieces
+     * @return true if the pieces should be evaluated in parallel
+     */
+    static boolean isParallelEvaluation(int piecesCount) {
+        final int minParallelPieces = 1 << 16;
+        String mode = System.getProperty(EVALUATION_PROPERTY, "auto");
+        if (mode.equals("auto")) {
+            return piecesCount >= minParallelPieces && Runtime.getRuntime().availableProcessors() > 1;
         }
+        return mode.equals("parallel");
+    }
+
+    /**
+     * Method for writing the message of the exception and stopping the program.
+     *
+     * @param output    the output writer
+     * @param exception the exception to report
+     * @throws IOException if the output can not be written
+     */
+    private static void exitWithError(OutputWriter output, Exception exception) throws IOException {
+        output.print(exception.getMessage());
+        output.close();
+        System.exit(0);
     }
 }
 
 /**
- * Interface for diagonal movement.
- *
- * @see Bishop
- * @see Queen
+ * Class for the streaming evaluation of a position too large for the memory.
+ * The board is split into bands of ranks. The first pass validates the input as {@link Main#readPosition}
+ * and spills every piece into the file of its band, while the band of every piece is spilled in the input order.
+ * A pass from the top band down spills for every band the nearest pieces above it on every file and diagonal
+ * together with the pieces of the two ranks above it. A pass from the bottom band up evaluates every band
+ * on a sparse board holding its pieces, the same nearest pieces below it, collected on the way, and the spilled
+ * pieces above it, which are all the pieces outside of the band its rays and jumps can reach.
+ * The results of every band are spilled as well and merged back into the input order,
+ * so only one band and the nearest pieces of the lines are kept in the memory at once.
  */
-interface BishopMovement {
+class StreamingEvaluator implements PieceSink {
     /**
-     * Method for counting the possible moves of the bishop.
+     * system property setting the number of the bands.
+     */
+    static final String BANDS_PROPERTY = "chess.streamBands";
+    /**
+     * default number of the bands.
+     */
+    private static final int DEFAULT_BANDS = 64;
+    /**
+     * number of the ranks outside of the band reached by the jumps of the knight.
+     */
+    private static final int MARGIN = 2;
+    /**
+     * size of the buffers of the spill files.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * shift of the x coordinate in the encoded piece.
+     */
+    private static final int X_SHIFT = 8;
+    /**
+     * shift of the y coordinate in the encoded piece.
+     */
+    private static final int Y_SHIFT = 32;
+    /**
+     * mask of the x coordinate in the encoded piece after the shift.
+     */
+    private static final int X_MASK = 0xFFFFFF;
+    /**
+     * mask of the square code in the encoded piece.
+     */
+    private static final int CODE_MASK = 0xFF;
+    /**
+     * types of the pieces by their codes.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * directory of the spill files.
+     */
+    private final Path directory;
+    /**
+     * size of the board.
+     */
+    private int size;
+    /**
+     * number of the ranks in one band.
+     */
+    private int bandHeight;
+    /**
+     * number of the bands.
+     */
+    private int bandsCount;
+    /**
+     * spill files of the pieces of every band, null until the size of the board is read.
+     */
+    private DataOutputStream[] bands;
+    /**
+     * numbers of the pieces of every band.
+     */
+    private int[] bandSizes;
+    /**
+     * spill file of the bands of the pieces in the input order.
+     */
+    private DataOutputStream order;
+    /**
+     * number of the read pieces.
+     */
+    private int count;
+    /**
+     * error of writing a spill file while the input is read.
+     */
+    private IOException failure;
+
+    /**
+     * Constructor for the streaming evaluator.
      *
-     * @param position  the position of the piece
-     * @param color     the color of the piece
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
-     * @return the number of possible diagonal moves
+     * @param spillDirectory the directory of the spill files
      */
-    default int getDiagonalMovesCount(PiecePosition position, PieceColor color,
-                                      Map<String, ChessPiece> positions, int boardSize) {
-        int movesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        while (x < boardSize && y < boardSize) {
-            x++;
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
+    StreamingEvaluator(Path spillDirectory) {
+        directory = spillDirectory;
+    }
+
+    /**
+     * Method for evaluating the position of the input file into the output file band by band.
+     * The spill files are written into a temporary directory, which is deleted afterwards.
+     *
+     * @param inputFileName  the name of the input file
+     * @param outputFileName the name of the output file
+     * @throws IOException if the files can not be read or written
+     */
+    static void solve(String inputFileName, String outputFileName) throws IOException {
+        Path directory = Files.createTempDirectory("chess-stream");
+        try {
+            StreamingEvaluator evaluator = new StreamingEvaluator(directory);
+            Exception error;
+            try (InputTokenizer input = InputTokenizer.open(inputFileName)) {
+                error = Main.readPosition(input, evaluator);
+            }
+            if (evaluator.failure != null) {
+                throw evaluator.failure;
+            }
+            if (evaluator.bands != null) {
+                evaluator.closeSpills();
+                if (error == null) {
+                    evaluator.spillPiecesAbove();
                 }
-                break;
+                if (evaluator.evaluateBands(error == null)) {
+                    error = new InvalidPiecePositionException();
+                }
+            }
+            OutputWriter output = OutputWriter.open(outputFileName);
+            if (error != null) {
+                output.print(error.getMessage());
             } else {
-                movesCount++;
+                evaluator.mergeResults(output);
             }
-        }
-        x = position.getX();
-        y = position.getY();
-        while (x < boardSize && y > 1) {
-            x++;
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
+            output.close();
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
                 }
-                break;
-            } else {
-                movesCount++;
             }
+            Files.delete(directory);
         }
-        x = position.getX();
-        y = position.getY();
-        while (x > 1 && y < boardSize) {
-            x--;
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
-                }
-                break;
-            } else {
-                movesCount++;
+    }
+
+    /**
+     * Method for splitting the board into the bands and opening their spill files.
+     *
+     * @param boardSize   the size of the board
+     * @param piecesCount the expected number of pieces
+     */
+    @Override
+    public void clear(int boardSize, long piecesCount) {
+        size = boardSize;
+        int requested = Math.max(1, Math.min(Integer.getInteger(BANDS_PROPERTY, DEFAULT_BANDS), size / MARGIN));
+        bandHeight = (size + requested - 1) / requested;
+        bandsCount = (size + bandHeight - 1) / bandHeight;
+        bands = new DataOutputStream[bandsCount];
+        bandSizes = new int[bandsCount];
+        try {
+            for (int band = 0; band < bandsCount; band++) {
+                bands[band] = openOutput(getPiecesFile(band));
             }
+            order = openOutput(directory.resolve("order"));
+        } catch (IOException e) {
+            throw fail(e);
+        }
+    }
+
+    /**
+     * Method for checking whether the square is occupied.
+     * The pieces are not kept in the memory while the input is read,
+     * so the pieces on the same square are found later by the board of their band.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return always false
+     */
+    @Override
+    public boolean isOccupied(int x, int y) {
+        return false;
+    }
+
+    /**
+     * Method for spilling the piece into the file of its band.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @return the index of the piece in the input order
+     */
+    @Override
+    public int addPiece(PieceType type, PieceColor color, int x, int y) {
+        int band = (y - 1) / bandHeight;
+        try {
+            order.writeShort(band);
+            bands[band].writeLong(encode(x, y, SquareGrid.encode(type, color)));
+        } catch (IOException e) {
+            throw fail(e);
         }
-        x = position.getX();
-        y = position.getY();
-        while (x > 1 && y > 1) {
-            x--;
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
+        bandSizes[band]++;
+        return count++;
+    }
+
+    /**
+     * Method for remembering the error of writing a spill file, so it is not reported as an invalid input.
+     *
+     * @param e the error
+     * @return the unchecked exception stopping the reading of the input
+     */
+    private UncheckedIOException fail(IOException e) {
+        failure = e;
+        return new UncheckedIOException(e);
+    }
+
+    /**
+     * Method for closing the spill files written while the input is read.
+     *
+     * @throws IOException if the files can not be written
+     */
+    private void closeSpills() throws IOException {
+        for (DataOutputStream band : bands) {
+            band.close();
+        }
+        order.close();
+    }
+
+    /**
+     * Method for spilling for every band the pieces above it which its pieces can reach,
+     * going from the top band down and keeping the lowest piece seen so far on every line.
+     *
+     * @throws IOException if the files can not be read or written
+     */
+    private void spillPiecesAbove() throws IOException {
+        long[] files = new long[size];
+        long[] diagonals = new long[2 * size - 1];
+        long[] antiDiagonals = new long[2 * size - 1];
+        long[] margin = new long[0];
+        for (int band = bandsCount - 1; band >= 0; band--) {
+            try (DataOutputStream output = openOutput(getAboveFile(band))) {
+                long[] nearest = collectNearest(files, diagonals, antiDiagonals, margin);
+                output.writeInt(nearest.length);
+                for (long piece : nearest) {
+                    output.writeLong(piece);
                 }
-                break;
-            } else {
-                movesCount++;
+            }
+            long[] pieces = readPieces(band);
+            int lowest = band * bandHeight + 1;
+            margin = Arrays.stream(pieces).filter(piece -> getY(piece) < lowest + MARGIN).toArray();
+            for (long piece : pieces) {
+                int x = getX(piece);
+                int y = getY(piece);
+                files[x - 1] = nearer(files[x - 1], piece, false);
+                diagonals[x - y + size - 1] = nearer(diagonals[x - y + size - 1], piece, false);
+                antiDiagonals[x + y - 2] = nearer(antiDiagonals[x + y - 2], piece, false);
             }
         }
-        return movesCount;
     }
 
     /**
-     * Method for counting the possible captures of the bishop.
+     * Method for evaluating the bands from the bottom band up and spilling their results,
+     * keeping the highest piece seen so far on every line.
      *
-     * @param position  the position of the piece
-     * @param color     the color of the piece
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
-     * @return the number of possible diagonal captures
+     * @param evaluate whether the bands are evaluated, otherwise they are only checked for the pieces on one square
+     * @return true if two pieces are on the same square
+     * @throws IOException if the files can not be read or written
      */
-    default int getDiagonalCapturesCount(PiecePosition position, PieceColor color,
-                                         Map<String, ChessPiece> positions, int boardSize) {
-        int capturesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        while (x < boardSize && y < boardSize) {
-            x++;
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+    private boolean evaluateBands(boolean evaluate) throws IOException {
+        long[] files = new long[size];
+        long[] diagonals = new long[2 * size - 1];
+        long[] antiDiagonals = new long[2 * size - 1];
+        long[] margin = new long[0];
+        Board board = Board.create(size, BoardStorage.SPARSE);
+        for (int band = 0; band < bandsCount; band++) {
+            long[] pieces = readPieces(band);
+            board.clear(size, pieces.length);
+            for (long piece : pieces) {
+                if (board.isOccupied(getX(piece), getY(piece))) {
+                    return true;
                 }
-                break;
+                addPiece(board, piece);
             }
-        }
-        x = position.getX();
-        y = position.getY();
-        while (x < boardSize && y >= 0) {
-            x++;
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+            if (!evaluate) {
+                continue;
+            }
+            for (long piece : collectNearest(files, diagonals, antiDiagonals, margin)) {
+                addPiece(board, piece);
+            }
+            try (DataInputStream input = openInput(getAboveFile(band))) {
+                int nearestCount = input.readInt();
+                for (int i = 0; i < nearestCount; i++) {
+                    addPiece(board, input.readLong());
                 }
-                break;
             }
-        }
-        x = position.getX();
-        y = position.getY();
-        while (x >= 0 && y < boardSize) {
-            x--;
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+            int[] results = new int[2 * board.getPiecesCount()];
+            if (Main.isParallelEvaluation(board.getPiecesCount())) {
+                board.evaluateAllParallel(results);
+            } else {
+                board.evaluateAll(results);
+            }
+            try (DataOutputStream output = openOutput(getResultsFile(band))) {
+                for (int i = 0; i < 2 * pieces.length; i++) {
+                    output.writeInt(results[i]);
                 }
-                break;
+            }
+            int highest = Math.min(size, (band + 1) * bandHeight);
+            margin = Arrays.stream(pieces).filter(piece -> getY(piece) > highest - MARGIN).toArray();
+            for (long piece : pieces) {
+                int x = getX(piece);
+                int y = getY(piece);
+                files[x - 1] = nearer(files[x - 1], piece, true);
+                diagonals[x - y + size - 1] = nearer(diagonals[x - y + size - 1], piece, true);
+                antiDiagonals[x + y - 2] = nearer(antiDiagonals[x + y - 2], piece, true);
             }
         }
-        x = position.getX();
-        y = position.getY();
-        while (x >= 0 && y >= 0) {
-            x--;
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+        return false;
+    }
+
+    /**
+     * Method for writing the results of the bands in the input order.
+     *
+     * @param output the output writer
+     * @throws IOException if the files can not be read or written
+     */
+    private void mergeResults(OutputWriter output) throws IOException {
+        DataInputStream[] results = new DataInputStream[bandsCount];
+        try (DataInputStream pieceBands = openInput(directory.resolve("order"))) {
+            for (int band = 0; band < bandsCount; band++) {
+                results[band] = openInput(getResultsFile(band));
+            }
+            for (int i = 0; i < count; i++) {
+                DataInputStream band = results[pieceBands.readShort()];
+                output.printInt(band.readInt());
+                output.printByte(' ');
+                output.printInt(band.readInt());
+                output.printByte('\n');
+            }
+        } finally {
+            for (DataInputStream band : results) {
+                if (band != null) {
+                    band.close();
                 }
-                break;
             }
         }
-        return capturesCount;
     }
-}
 
-/**
- * Interface for horizontal and vertical movement.
- *
- * @see Rook
- * @see Queen
- */
-interface RookMovement {
     /**
-     * Method for counting the possible moves of the rook.
+     * Method for collecting the nearest pieces of the lines and the pieces of the neighbouring ranks.
      *
-     * @param position  the position of the piece
-     * @param color     the color of the piece
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
-     * @return the number of possible horizontal and vertical moves
+     * @param files         the nearest pieces of the files
+     * @param diagonals     the nearest pieces of the diagonals
+     * @param antiDiagonals the nearest pieces of the anti-diagonals
+     * @param margin        the pieces of the neighbouring ranks
+     * @return the sorted encoded pieces without repetitions
      */
-    default int getOrthogonalMovesCount(PiecePosition position, PieceColor color,
-                                        Map<String, ChessPiece> positions, int boardSize) {
-        int movesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        while (x < boardSize) {
-            x++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
-                }
-                break;
-            } else {
-                movesCount++;
-            }
+    private static long[] collectNearest(long[] files, long[] diagonals, long[] antiDiagonals, long[] margin) {
+        return Stream.of(files, diagonals, antiDiagonals, margin).flatMapToLong(Arrays::stream)
+                .filter(piece -> piece != 0).sorted().distinct().toArray();
+    }
+
+    /**
+     * Method for choosing the piece nearer to the band.
+     *
+     * @param current the nearest piece so far or 0 if there is none
+     * @param piece   the next piece of the line
+     * @param higher  whether the higher piece is nearer
+     * @return the nearer piece
+     */
+    private static long nearer(long current, long piece, boolean higher) {
+        if (current == 0 || (higher ? piece > current : piece < current)) {
+            return piece;
         }
-        x = position.getX();
-        y = position.getY();
-        while (x > 1) {
-            x--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
-                }
-                break;
-            } else {
-                movesCount++;
+        return current;
+    }
+
+    /**
+     * Method for reading the spilled pieces of the band.
+     *
+     * @param band the index of the band
+     * @return the encoded pieces in the input order
+     * @throws IOException if the file can not be read
+     */
+    private long[] readPieces(int band) throws IOException {
+        long[] pieces = new long[bandSizes[band]];
+        try (DataInputStream input = openInput(getPiecesFile(band))) {
+            for (int i = 0; i < pieces.length; i++) {
+                pieces[i] = input.readLong();
             }
         }
-        x = position.getX();
-        y = position.getY();
-        while (y < boardSize) {
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
-                }
-                break;
-            } else {
-                movesCount++;
-            }
+        return pieces;
+    }
+
+    /**
+     * Method for adding the encoded piece to the board.
+     *
+     * @param board the board
+     * @param piece the encoded piece
+     */
+    private static void addPiece(Board board, long piece) {
+        int x = getX(piece);
+        int y = getY(piece);
+        if (board.isOccupied(x, y)) {
+            return;
         }
-        x = position.getX();
-        y = position.getY();
-        while (y > 1) {
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    movesCount++;
-                }
-                break;
-            } else {
-                movesCount++;
+        int code = (int) (piece & CODE_MASK);
+        PieceColor color = (code & SquareGrid.BLACK_BIT) == 0 ? PieceColor.WHITE : PieceColor.BLACK;
+        board.addPiece(TYPES[(code & SquareGrid.TYPE_MASK) - 1], color, x, y);
+    }
+
+    /**
+     * Method for encoding the piece into one number ordered by the rank and then by the file.
+     *
+     * @param x    the x coordinate of the piece
+     * @param y    the y coordinate of the piece
+     * @param code the square code of the piece
+     * @return the encoded piece, never 0
+     */
+    private static long encode(int x, int y, byte code) {
+        return (long) y << Y_SHIFT | (long) x << X_SHIFT | code;
+    }
+
+    /**
+     * Method for getting the x coordinate of the encoded piece.
+     *
+     * @param piece the encoded piece
+     * @return the x coordinate
+     */
+    private static int getX(long piece) {
+        return (int) (piece >>> X_SHIFT) & X_MASK;
+    }
+
+    /**
+     * Method for getting the y coordinate of the encoded piece.
+     *
+     * @param piece the encoded piece
+     * @return the y coordinate
+     */
+    private static int getY(long piece) {
+        return (int) (piece >>> Y_SHIFT);
+    }
+
+    /**
+     * Method for getting the spill file of the pieces of the band.
+     *
+     * @param band the index of the band
+     * @return the path of the file
+     */
+    private Path getPiecesFile(int band) {
+        return directory.resolve("band-" + band);
+    }
+
+    /**
+     * Method for getting the spill file of the pieces above the band reached by its pieces.
+     *
+     * @param band the index of the band
+     * @return the path of the file
+     */
+    private Path getAboveFile(int band) {
+        return directory.resolve("above-" + band);
+    }
+
+    /**
+     * Method for getting the spill file of the results of the band.
+     *
+     * @param band the index of the band
+     * @return the path of the file
+     */
+    private Path getResultsFile(int band) {
+        return directory.resolve("results-" + band);
+    }
+
+    /**
+     * Method for opening a buffered spill file for writing.
+     *
+     * @param path the path of the file
+     * @return the stream of the file
+     * @throws IOException if the file can not be opened
+     */
+    private static DataOutputStream openOutput(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+    }
+
+    /**
+     * Method for opening a buffered spill file for reading.
+     *
+     * @param path the path of the file
+     * @return the stream of the file
+     * @throws IOException if the file can not be opened
+     */
+    private static DataInputStream openInput(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+    }
+}
+
+/**
+ * Class for the server evaluating the positions sent over a local socket.
+ * A client sends positions in the format of the input file, every position ended by an empty line,
+ * and gets back the moves and captures of every piece or the error message, also ended by an empty line.
+ * Every connection is served by its own thread, virtual if the runtime supports them,
+ * and the boards are taken from a pool shared by the connections.
+ */
+class EvaluationServer {
+    /**
+     * prefix of the address of a Unix-domain socket.
+     */
+    static final String UNIX_PREFIX = "unix:";
+    /**
+     * the address to listen on: a port on the loopback interface or a Unix-domain socket path.
+     */
+    private final String address;
+    /**
+     * boards not used by any connection.
+     */
+    private final Queue<Board> boards = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructor for the server.
+     *
+     * @param listenAddress the port on the loopback interface or "unix:" followed by the socket path
+     */
+    EvaluationServer(String listenAddress) {
+        address = listenAddress;
+    }
+
+    /**
+     * Method for accepting the connections until the process is stopped.
+     *
+     * @throws IOException if the socket can not be opened
+     */
+    public void serve() throws IOException {
+        ExecutorService executor = createExecutor();
+        try (ServerSocketChannel server = open()) {
+            while (true) {
+                SocketChannel client = server.accept();
+                executor.execute(() -> handle(client));
             }
         }
-        return movesCount;
     }
 
     /**
-     * Method for counting the possible captures of the rook.
+     * Method for opening the listening socket.
      *
-     * @param position  the position of the piece
-     * @param color     the color of the piece
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
-     * @return the number of possible horizontal and vertical captures
+     * @return the listening socket
+     * @throws IOException if the socket can not be opened
      */
-    default int getOrthogonalCapturesCount(PiecePosition position, PieceColor color,
-                                           Map<String, ChessPiece> positions, int boardSize) {
-        int capturesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        while (x < boardSize) {
-            x++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
-                }
-                break;
-            }
+    private ServerSocketChannel open() throws IOException {
+        if (address.startsWith(UNIX_PREFIX)) {
+            Path path = Paths.get(address.substring(UNIX_PREFIX.length()));
+            Files.deleteIfExists(path);
+            return ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(UnixDomainSocketAddress.of(path));
+        }
+        int port = Integer.parseInt(address);
+        return ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Method for creating the executor running one thread per connection.
+     * Virtual threads are used when the runtime provides them, platform threads otherwise.
+     *
+     * @return the executor
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Method for serving one connection until the client closes it.
+     * An unexpected error of a request is answered with the invalid input message as in the file mode,
+     * and the connection is closed.
+     * The statistics of the shared cache are printed after every connection if they are enabled.
+     *
+     * @param client the socket of the client
+     */
+    private void handle(SocketChannel client) {
+        Board board = boards.poll();
+        if (board == null) {
+            board = Main.createBoard();
         }
-        x = position.getX();
-        y = position.getY();
-        while (x >= 0) {
-            x--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+        try (client; InputTokenizer input = new InputTokenizer(Channels.newInputStream(client))) {
+            OutputWriter output = new OutputWriter(client, false);
+            try {
+                input.splitRecords();
+                int[] results = new int[0];
+                while (input.nextRecord()) {
+                    results = Main.evaluatePosition(input, output, board, results, true);
+                    output.printByte('\n');
+                    output.flush();
                 }
-                break;
+            } catch (RuntimeException e) {
+                output.print(new InvalidInputException().getMessage());
+                output.printByte('\n');
+                output.flush();
             }
+        } catch (IOException e) {
+            // the client has gone, there is nobody to report the error to
+        } finally {
+            boards.offer(board);
+            Main.reportCacheStatistics();
+        }
+    }
+}
+
+/**
+ * Interface for the sources of the tokens of a position, read in the order of the input format.
+ *
+ * @see InputTokenizer
+ * @see BinaryPositionInput
+ */
+interface PositionInput {
+    /**
+     * Method for reading the size of the board, the number of pieces or a coordinate of the piece.
+     *
+     * @return the read integer
+     * @throws IOException if the input can not be read
+     */
+    int nextInt() throws IOException;
+
+    /**
+     * Method for reading the type of the piece.
+     *
+     * @return the type of the piece or null if it is not a valid type
+     * @throws IOException if the input can not be read
+     */
+    PieceType nextPieceType() throws IOException;
+
+    /**
+     * Method for reading the color of the piece.
+     *
+     * @return the color of the piece or null if it is not a valid color
+     * @throws IOException if the input can not be read
+     */
+    PieceColor nextPieceColor() throws IOException;
+
+    /**
+     * Method for checking whether the input has more data after the position.
+     *
+     * @return true if there is more data
+     * @throws IOException if the input can not be read
+     */
+    boolean hasNext() throws IOException;
+}
+
+/**
+ * Class for the binary formats of the positions and of the results, read and written through the channels.
+ * A binary position is the position magic number, the size of the board and the number of pieces
+ * as 32-bit integers and a record of five bytes for every piece: its square code, see {@link SquareGrid#encode},
+ * and its x and y coordinates as unsigned 16-bit integers. The binary results are the results magic number,
+ * the number of pieces as a 32-bit integer and the moves and captures of every piece as unsigned varints,
+ * or -1 instead of the number of pieces followed by the length of the error message as a varint
+ * and its ASCII characters. All integers are big-endian.
+ */
+final class BinaryFormat {
+    /**
+     * magic number "CHP1" starting the binary position.
+     */
+    static final int POSITION_MAGIC = 0x43485031;
+    /**
+     * magic number "CHR1" starting the binary results.
+     */
+    static final int RESULTS_MAGIC = 0x43485231;
+    /**
+     * bits of the square code outside of the type and the color, a record with any of them has an invalid color.
+     */
+    static final int INVALID_COLOR_BITS = 0xF0;
+    /**
+     * mask converting a 16-bit coordinate into an unsigned one.
+     */
+    static final int COORDINATE_MASK = 0xFFFF;
+    /**
+     * number of the bytes of the piece record.
+     */
+    static final int RECORD_BYTES = 5;
+    /**
+     * maximum number of the bytes of a varint.
+     */
+    static final int MAX_VARINT_BYTES = 5;
+    /**
+     * number of the value bits in one byte of a varint.
+     */
+    static final int VARINT_SHIFT = 7;
+    /**
+     * mask of the value bits in one byte of a varint.
+     */
+    static final int VARINT_MASK = 0x7F;
+    /**
+     * bit of a varint byte marking that more bytes follow.
+     */
+    static final int VARINT_CONTINUATION = 0x80;
+    /**
+     * number of pieces of the binary results marking the error message.
+     */
+    static final int ERROR_COUNT = -1;
+    /**
+     * size of the buffers of the channels.
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Method for evaluating the binary position of the input file into the binary results of the output file.
+     * The position is validated by the same rules as the text one.
+     *
+     * @param inputFileName  the name of the input file
+     * @param outputFileName the name of the output file
+     * @throws IOException if the files can not be read or written
+     */
+    static void solve(String inputFileName, String outputFileName) throws IOException {
+        Board board = Board.create(Main.MIN_BOARD_SIZE);
+        Exception error;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFileName))) {
+            BinaryPositionInput input = new BinaryPositionInput(channel);
+            error = input.readMagic() == POSITION_MAGIC ? Main.readPosition(input, board) : new InvalidInputException();
         }
-        x = position.getX();
-        y = position.getY();
-        while (y < boardSize) {
-            y++;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+        try (FileChannel channel = openOutput(outputFileName)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(RESULTS_MAGIC);
+            if (error != null) {
+                byte[] message = error.getMessage().getBytes(StandardCharsets.US_ASCII);
+                buffer.putInt(ERROR_COUNT);
+                putVarint(buffer, message.length);
+                buffer.put(message);
+            } else {
+                int[] results = new int[2 * board.getPiecesCount()];
+                Main.evaluate(board, results);
+                buffer.putInt(board.getPiecesCount());
+                for (int result : results) {
+                    if (buffer.remaining() < MAX_VARINT_BYTES) {
+                        flush(buffer, channel);
+                    }
+                    putVarint(buffer, result);
                 }
-                break;
             }
+            flush(buffer, channel);
+        }
+    }
+
+    /**
+     * Method for converting the text position of the input file into the binary position of the output file.
+     * The position is validated while it is converted, an invalid one leaves no output file.
+     *
+     * @param inputFileName  the name of the text input file
+     * @param outputFileName the name of the binary output file
+     * @return null if the position is valid, otherwise the exception of the first found error
+     * @throws IOException if the files can not be read or written
+     */
+    static Exception toBinary(String inputFileName, String outputFileName) throws IOException {
+        Exception error;
+        try (InputTokenizer input = InputTokenizer.open(inputFileName);
+             FileChannel channel = openOutput(outputFileName)) {
+            BinaryPositionOutput output = new BinaryPositionOutput(channel);
+            error = Main.readPosition(input, output);
+            output.finish();
+        }
+        if (error != null) {
+            Files.delete(Paths.get(outputFileName));
         }
-        x = position.getX();
-        y = position.getY();
-        while (y >= 0) {
-            y--;
-            if (positions.containsKey(x + " " + y)) {
-                if (positions.get(x + " " + y).getColor() != color) {
-                    capturesCount++;
+        return error;
+    }
+
+    /**
+     * Method for converting the binary position or results of the input file into the text ones of the output file.
+     * The kind of the input is told by its magic number, the position is converted without validation.
+     *
+     * @param inputFileName  the name of the binary input file
+     * @param outputFileName the name of the text output file
+     * @throws IOException if the files can not be read or written or the input is not a well-formed binary format
+     */
+    static void toText(String inputFileName, String outputFileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFileName))) {
+            BinaryPositionInput input = new BinaryPositionInput(channel);
+            int magic = input.readMagic();
+            if (magic != POSITION_MAGIC && magic != RESULTS_MAGIC) {
+                throw new IOException(inputFileName + " is neither a binary position nor binary results");
+            }
+            try (OutputWriter output = OutputWriter.open(outputFileName)) {
+                if (magic == POSITION_MAGIC) {
+                    writePosition(input, output);
+                } else {
+                    writeResults(input, output);
                 }
-                break;
             }
         }
-        return capturesCount;
     }
-}
 
+    /**
+     * Method for writing the binary position in the text format.
+     * The types and colors of the invalid codes are written as "?", so the text position keeps their errors.
+     *
+     * @param input  the binary input after the magic number
+     * @param output the text output
+     * @throws IOException if the input can not be read or the output can not be written
+     */
+    private static void writePosition(BinaryPositionInput input, OutputWriter output) throws IOException {
+        int n = input.nextInt();
+        int m = input.nextInt();
+        output.printInt(n);
+        output.printByte('\n');
+        output.printInt(m);
+        output.printByte('\n');
+        for (int i = 0; i < m; i++) {
+            PieceType type = input.nextPieceType();
+            PieceColor color = input.nextPieceColor();
+            output.print(type == null ? "?" : type.getName());
+            output.printByte(' ');
+            output.print(color == null ? "?" : color.getName());
+            output.printByte(' ');
+            output.printInt(input.nextInt());
+            output.printByte(' ');
+            output.printInt(input.nextInt());
+            output.printByte('\n');
+        }
+    }
+
+    /**
+     * Method for writing the binary results in the text format of the output file.
+     *
+     * @param input  the binary input after the magic number
+     * @param output the text output
+     * @throws IOException if the input can not be read or the output can not be written
+     */
+    private static void writeResults(BinaryPositionInput input, OutputWriter output) throws IOException {
+        int m = input.readInt();
+        if (m == ERROR_COUNT) {
+            output.print(input.readAscii(input.readVarint()));
+            return;
+        }
+        for (int i = 0; i < m; i++) {
+            output.printInt(input.readVarint());
+            output.printByte(' ');
+            output.printInt(input.readVarint());
+            output.printByte('\n');
+        }
+    }
+
+    /**
+     * Method for opening the output file for writing, replacing its old content.
+     *
+     * @param fileName the name of the output file
+     * @return the channel of the file
+     * @throws IOException if the file can not be created
+     */
+    static FileChannel openOutput(String fileName) throws IOException {
+        return FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Method for writing the non-negative integer as an unsigned varint, seven bits per byte from the lowest.
+     *
+     * @param buffer the buffer with at least {@link #MAX_VARINT_BYTES} remaining bytes
+     * @param value  the integer
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        int rest = value;
+        while ((rest & ~VARINT_MASK) != 0) {
+            buffer.put((byte) ((rest & VARINT_MASK) | VARINT_CONTINUATION));
+            rest >>>= VARINT_SHIFT;
+        }
+        buffer.put((byte) rest);
+    }
 
+    /**
+     * Method for writing the content of the buffer into the channel and clearing the buffer.
+     *
+     * @param buffer  the buffer being filled
+     * @param channel the channel
+     * @throws IOException if the channel can not be written
+     */
+    static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
 
 /**
- * Class for work with the board.
+ * Class for reading the binary position from a channel as the source of the tokens of {@link Main#readPosition},
+ * so it is validated by the same rules as the text one.
+ * The first two integers are the 32-bit size of the board and number of pieces,
+ * the following ones are the 16-bit coordinates of the pieces.
+ *
+ * @see BinaryFormat
  */
-class Board {
+class BinaryPositionInput implements PositionInput {
     /**
-     * map of position to pieces.
+     * number of the 32-bit integers of the header after the magic number.
      */
-    private final Map<String, ChessPiece> positionsToPieces = new HashMap<>();
+    private static final int HEADER_INTEGERS = 2;
     /**
-     * size of the board.
+     * mask converting a signed byte into an unsigned one.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * types of the pieces by their codes.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * channel of the input.
+     */
+    private final ReadableByteChannel channel;
+    /**
+     * buffer of the read bytes, in the reading mode.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BinaryFormat.BUFFER_SIZE);
+    /**
+     * number of the read integers of the header.
+     */
+    private int headerIntegers;
+    /**
+     * square code of the current piece record.
+     */
+    private int code;
+
+    /**
+     * Constructor for the binary input.
+     *
+     * @param input the channel of the input
+     */
+    BinaryPositionInput(ReadableByteChannel input) {
+        channel = input;
+        buffer.limit(0);
+    }
+
+    /**
+     * Method for reading the magic number telling the format of the input.
+     *
+     * @return the magic number or 0 if the input is too short
+     * @throws IOException if the input can not be read
+     */
+    public int readMagic() throws IOException {
+        return fill(Integer.BYTES) ? buffer.getInt() : 0;
+    }
+
+    /**
+     * Method for reading the size of the board, the number of pieces or a coordinate of the piece.
+     *
+     * @return the read integer
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public int nextInt() throws IOException {
+        if (headerIntegers < HEADER_INTEGERS) {
+            headerIntegers++;
+            return readInt();
+        }
+        require(Short.BYTES);
+        return buffer.getShort() & BinaryFormat.COORDINATE_MASK;
+    }
+
+    /**
+     * Method for reading the square code of the piece record and getting its type.
+     *
+     * @return the type of the piece or null if the code has no valid type
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public PieceType nextPieceType() throws IOException {
+        require(Byte.BYTES);
+        code = buffer.get() & BYTE_MASK;
+        int type = code & SquareGrid.TYPE_MASK;
+        return type >= 1 && type <= TYPES.length ? TYPES[type - 1] : null;
+    }
+
+    /**
+     * Method for getting the color of the square code read by {@link #nextPieceType}.
+     *
+     * @return the color of the piece or null if the code has invalid color bits
+     */
+    @Override
+    public PieceColor nextPieceColor() {
+        if ((code & BinaryFormat.INVALID_COLOR_BITS) != 0) {
+            return null;
+        }
+        return (code & SquareGrid.BLACK_BIT) == 0 ? PieceColor.WHITE : PieceColor.BLACK;
+    }
+
+    /**
+     * Method for checking whether the input has more bytes.
+     *
+     * @return true if there is one more byte
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public boolean hasNext() throws IOException {
+        return fill(Byte.BYTES);
+    }
+
+    /**
+     * Method for reading a 32-bit integer.
+     *
+     * @return the integer
+     * @throws IOException if the input can not be read
+     */
+    public int readInt() throws IOException {
+        require(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    /**
+     * Method for reading an unsigned varint of a non-negative integer.
+     *
+     * @return the integer
+     * @throws IOException if the input can not be read, ends inside the varint,
+     *                     or the varint is longer than {@link BinaryFormat#MAX_VARINT_BYTES} or exceeds an integer
+     */
+    public int readVarint() throws IOException {
+        long value = 0;
+        for (int i = 0; i < BinaryFormat.MAX_VARINT_BYTES; i++) {
+            require(Byte.BYTES);
+            int current = buffer.get();
+            value |= (long) (current & BinaryFormat.VARINT_MASK) << (i * BinaryFormat.VARINT_SHIFT);
+            if ((current & BinaryFormat.VARINT_CONTINUATION) == 0) {
+                if (value > Integer.MAX_VALUE) {
+                    throw new IOException("the varint " + value + " exceeds an integer");
+                }
+                return (int) value;
+            }
+        }
+        throw new IOException("the varint is longer than " + BinaryFormat.MAX_VARINT_BYTES + " bytes");
+    }
+
+    /**
+     * Method for reading the text of ASCII characters.
+     *
+     * @param length the number of characters, at most the size of the buffer
+     * @return the text
+     * @throws IOException if the input can not be read or ends inside the text, or the length is out of range
+     */
+    public String readAscii(int length) throws IOException {
+        if (length < 0 || length > BinaryFormat.BUFFER_SIZE) {
+            throw new IOException("the text length " + length + " is out of range");
+        }
+        require(length);
+        byte[] text = new byte[length];
+        buffer.get(text);
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Method for making the bytes available in the buffer.
+     *
+     * @param bytes the number of bytes, at most the size of the buffer
+     * @throws IOException  if the input can not be read
+     * @throws EOFException if the input ends before the bytes
+     */
+    private void require(int bytes) throws IOException {
+        if (!fill(bytes)) {
+            throw new EOFException("the binary input is truncated");
+        }
+    }
+
+    /**
+     * Method for refilling the buffer from the channel until it has the bytes or the input ends.
+     *
+     * @param bytes the number of bytes, at most the size of the buffer
+     * @return true if the bytes are available
+     * @throws IOException if the input can not be read
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+}
+
+/**
+ * Class for writing the pieces of a read position into a channel as the binary position.
+ * The pieces are kept on a board as well, so the occupied squares are found as while evaluating.
+ *
+ * @see BinaryFormat
+ */
+class BinaryPositionOutput implements PieceSink {
+    /**
+     * board checking the occupied squares.
+     */
+    private final Board board = Board.create(Main.MIN_BOARD_SIZE);
+    /**
+     * channel of the output.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * buffer of the written bytes.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BinaryFormat.BUFFER_SIZE);
+    /**
+     * error of writing the output while the input is read.
+     */
+    private IOException failure;
+
+    /**
+     * Constructor for the binary output.
+     *
+     * @param output the channel of the output
+     */
+    BinaryPositionOutput(WritableByteChannel output) {
+        channel = output;
+    }
+
+    /**
+     * Method for writing the header of the position and clearing the board.
+     *
+     * @param boardSize   the size of the board
+     * @param piecesCount the number of pieces
+     */
+    @Override
+    public void clear(int boardSize, long piecesCount) {
+        board.clear(boardSize, piecesCount);
+        buffer.putInt(BinaryFormat.POSITION_MAGIC);
+        buffer.putInt(boardSize);
+        buffer.putInt((int) piecesCount);
+    }
+
+    /**
+     * Method for checking whether the square is occupied.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return true if there is a piece on the square
+     */
+    @Override
+    public boolean isOccupied(int x, int y) {
+        return board.isOccupied(x, y);
+    }
+
+    /**
+     * Method for writing the record of the piece.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @return the index of the piece in the order of adding
+     */
+    @Override
+    public int addPiece(PieceType type, PieceColor color, int x, int y) {
+        if (buffer.remaining() < BinaryFormat.RECORD_BYTES) {
+            try {
+                BinaryFormat.flush(buffer, channel);
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+        }
+        buffer.put(SquareGrid.encode(type, color));
+        buffer.putShort((short) x);
+        buffer.putShort((short) y);
+        return board.addPiece(type, color, x, y);
+    }
+
+    /**
+     * Method for writing the rest of the buffer after the position is read.
+     *
+     * @throws IOException if the output can not be written
+     */
+    void finish() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        BinaryFormat.flush(buffer, channel);
+    }
+}
+
+/**
+ * Class for reading the tokens of the input directly from bytes.
+ * It replaces the Scanner: integers and the names of the pieces and colors
+ * are matched in the buffer without creating strings.
+ * The bytes come either from a heap buffer refilled from a stream
+ * or from the whole input file mapped into memory.
+ */
+class InputTokenizer implements PositionInput, AutoCloseable {
+    /**
+     * size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * system property selecting the way of reading the input: mapped, buffered or auto.
+     */
+    static final String MODE_PROPERTY = "chess.input";
+    /**
+     * size of the input file starting from which it is mapped in the auto mode.
+     */
+    private static final long MAPPED_THRESHOLD = 1 << 20;
+    /**
+     * mask converting a signed byte into an unsigned one.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * maximum length of a word token that still can be matched.
+     */
+    private static final int MAX_WORD_LENGTH = 16;
+    /**
+     * radix of the integers.
+     */
+    private static final int RADIX = 10;
+    /**
+     * last whitespace character of the ASCII control characters, as in Character.isWhitespace.
+     */
+    private static final int LAST_CONTROL_WHITESPACE = 13;
+    /**
+     * first whitespace character of the ASCII separators, as in Character.isWhitespace.
+     */
+    private static final int FIRST_SEPARATOR_WHITESPACE = 28;
+    /**
+     * last whitespace character of the ASCII separators, as in Character.isWhitespace.
+     */
+    private static final int LAST_SEPARATOR_WHITESPACE = 31;
+    /**
+     * types of the pieces by their codes.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * names of the piece types as bytes.
+     */
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+    /**
+     * colors of the pieces by their codes.
+     */
+    private static final PieceColor[] COLORS = PieceColor.values();
+    /**
+     * names of the colors as bytes.
+     */
+    private static final byte[][] COLOR_NAMES = new byte[COLORS.length][];
+
+    static {
+        for (PieceType type : TYPES) {
+            TYPE_NAMES[type.ordinal()] = type.getName().getBytes(StandardCharsets.US_ASCII);
+        }
+        for (PieceColor color : COLORS) {
+            COLOR_NAMES[color.ordinal()] = color.getName().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * stream of the input, null if the whole input is mapped.
+     */
+    private final InputStream stream;
+    /**
+     * buffer of the read bytes.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * bytes of the last word token.
+     */
+    private final byte[] word = new byte[MAX_WORD_LENGTH];
+    /**
+     * number of the bytes in the buffer.
+     */
+    private int length;
+    /**
+     * position of the next byte in the buffer.
+     */
+    private int offset;
+    /**
+     * whether the input consists of records separated by empty lines.
+     */
+    private boolean records;
+    /**
+     * whether a token of the current record was read.
+     */
+    private boolean recordStarted;
+    /**
+     * whether the empty line ending the current record was reached.
+     */
+    private boolean recordEnded;
+
+    /**
+     * Constructor for the tokenizer reading the stream through a heap buffer.
+     *
+     * @param input the stream of the input
+     */
+    InputTokenizer(InputStream input) {
+        stream = input;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for the tokenizer reading the bytes already in memory.
+     *
+     * @param data the bytes of the whole input
+     */
+    InputTokenizer(ByteBuffer data) {
+        stream = null;
+        buffer = data;
+        length = data.limit();
+    }
+
+    /**
+     * Method for opening the tokenizer over the input file.
+     * The file is mapped into memory if the mode property is "mapped",
+     * or if it is "auto" or not set and the file is large enough;
+     * otherwise it is read through the heap buffer.
+     *
+     * @param fileName the name of the input file
+     * @return the tokenizer
+     * @throws IOException if the file can not be opened
+     */
+    public static InputTokenizer open(String fileName) throws IOException {
+        String mode = System.getProperty(MODE_PROPERTY, "auto");
+        Path path = Paths.get(fileName);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean mapped = mode.equals("mapped") || mode.equals("auto") && size >= MAPPED_THRESHOLD;
+            if (mapped && size <= Integer.MAX_VALUE) {
+                return new InputTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return new InputTokenizer(new FileInputStream(fileName));
+    }
+
+    /**
+     * Method for closing the stream of the input.
+     * A mapped input has no stream, its file is closed once mapped and the mapping is released with the buffer.
+     *
+     * @throws IOException if the stream can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Method for checking whether there is one more token.
+     *
+     * @return true if there is one more token
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public boolean hasNext() throws IOException {
+        return skipWhitespace();
+    }
+
+    /**
+     * Method for splitting the input into records separated by empty lines.
+     * After the last token of a record there are no more tokens until the next record is started.
+     */
+    public void splitRecords() {
+        records = true;
+    }
+
+    /**
+     * Method for moving to the next record.
+     * The tokens left in the current record, for example after an invalid one, are skipped.
+     *
+     * @return true if there is one more record
+     * @throws IOException if the input can not be read
+     */
+    public boolean nextRecord() throws IOException {
+        if (recordStarted) {
+            while (skipWhitespace()) {
+                startToken();
+                int current = peek();
+                while (current >= 0 && !isWhitespace(current)) {
+                    offset++;
+                    current = peek();
+                }
+            }
+        }
+        recordStarted = false;
+        recordEnded = false;
+        return skipWhitespace();
+    }
+
+    /**
+     * Method for reading an integer token.
+     *
+     * @return the read integer
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public int nextInt() throws IOException {
+        startToken();
+        int current = peek();
+        boolean negative = current == '-';
+        if (current == '-' || current == '+') {
+            offset++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (true) {
+            current = peek();
+            if (current < 0 || isWhitespace(current)) {
+                break;
+            }
+            if (current < '0' || current > '9') {
+                throw new InputMismatchException();
+            }
+            value = value * RADIX + (current - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new InputMismatchException();
+            }
+            digits++;
+            offset++;
+        }
+        if (digits == 0) {
+            throw new InputMismatchException();
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new InputMismatchException();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Method for reading the name of the piece type.
+     *
+     * @return the type of the piece or null if the token is not a piece name
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public PieceType nextPieceType() throws IOException {
+        int wordLength = nextWord();
+        for (PieceType type : TYPES) {
+            if (matches(TYPE_NAMES[type.ordinal()], wordLength)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method for reading the name of the piece color.
+     *
+     * @return the color of the piece or null if the token is not a color name
+     * @throws IOException if the input can not be read
+     */
+    @Override
+    public PieceColor nextPieceColor() throws IOException {
+        int wordLength = nextWord();
+        for (PieceColor color : COLORS) {
+            if (matches(COLOR_NAMES[color.ordinal()], wordLength)) {
+                return color;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method for reading a word token into the word buffer.
+     *
+     * @return the length of the token
+     * @throws IOException if the input can not be read
+     */
+    private int nextWord() throws IOException {
+        startToken();
+        int wordLength = 0;
+        int current = peek();
+        while (current >= 0 && !isWhitespace(current)) {
+            if (wordLength < MAX_WORD_LENGTH) {
+                word[wordLength] = (byte) current;
+            }
+            wordLength++;
+            offset++;
+            current = peek();
+        }
+        return wordLength;
+    }
+
+    /**
+     * Method for comparing the last word token with the name.
+     *
+     * @param name       the name as bytes
+     * @param wordLength the length of the last word token
+     * @return true if the token is the name
+     */
+    private boolean matches(byte[] name, int wordLength) {
+        if (name.length != wordLength) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (word[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for skipping the whitespace before the next token.
+     *
+     * @return true if there is a token after the whitespace
+     * @throws IOException if the input can not be read
+     */
+    private boolean skipWhitespace() throws IOException {
+        if (recordEnded) {
+            return false;
+        }
+        int lineBreaks = 0;
+        int current = peek();
+        while (current >= 0 && isWhitespace(current)) {
+            offset++;
+            if (current == '\n') {
+                lineBreaks++;
+                if (records && recordStarted && lineBreaks > 1) {
+                    recordEnded = true;
+                    return false;
+                }
+            }
+            current = peek();
+        }
+        return current >= 0;
+    }
+
+    /**
+     * Method for moving to the start of the next token.
+     *
+     * @throws IOException if the input can not be read
+     */
+    private void startToken() throws IOException {
+        if (!skipWhitespace()) {
+            throw new NoSuchElementException();
+        }
+        recordStarted = true;
+    }
+
+    /**
+     * Method for getting the next byte without consuming it.
+     *
+     * @return the next byte or -1 at the end of the input
+     * @throws IOException if the input can not be read
+     */
+    private int peek() throws IOException {
+        if (offset == length) {
+            if (stream == null) {
+                return -1;
+            }
+            length = stream.read(buffer.array(), 0, BUFFER_SIZE);
+            offset = 0;
+            if (length <= 0) {
+                length = 0;
+                return -1;
+            }
+        }
+        return buffer.get(offset) & BYTE_MASK;
+    }
+
+    /**
+     * Method for checking whether the byte is a whitespace separating the tokens.
+     *
+     * @param current the byte
+     * @return true if the byte is a whitespace
+     */
+    private static boolean isWhitespace(int current) {
+        return current == ' ' || current >= '\t' && current <= LAST_CONTROL_WHITESPACE
+                || current >= FIRST_SEPARATOR_WHITESPACE && current <= LAST_SEPARATOR_WHITESPACE;
+    }
+}
+
+/**
+ * Class for writing the output through a reusable byte buffer.
+ * The integers are formatted directly into the buffer
+ * and the buffer is written to the file channel in large chunks.
+ */
+class OutputWriter implements AutoCloseable {
+    /**
+     * size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * system property selecting the buffer of the output: heap or direct.
+     */
+    static final String BUFFER_PROPERTY = "chess.output";
+    /**
+     * maximum number of bytes of a formatted integer.
+     */
+    private static final int MAX_INT_LENGTH = 11;
+    /**
+     * radix of the integers.
+     */
+    private static final int RADIX = 10;
+    /**
+     * channel of the output.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * buffer of the bytes not written yet.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor for the writer.
+     *
+     * @param output the channel of the output
+     * @param direct whether the buffer should be allocated outside of the heap
+     */
+    OutputWriter(WritableByteChannel output, boolean direct) {
+        channel = output;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        } else {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Method for opening the writer over the output file.
+     * The buffer is direct if the buffer property is "direct".
+     *
+     * @param fileName the name of the output file
+     * @return the writer
+     * @throws IOException if the file can not be created
+     */
+    public static OutputWriter open(String fileName) throws IOException {
+        boolean direct = System.getProperty(BUFFER_PROPERTY, "heap").equals("direct");
+        return new OutputWriter(new FileOutputStream(fileName).getChannel(), direct);
+    }
+
+    /**
+     * Method for writing one byte.
+     *
+     * @param value the byte
+     * @throws IOException if the output can not be written
+     */
+    public void printByte(char value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Method for writing the text consisting of ASCII characters.
+     *
+     * @param text the text
+     * @throws IOException if the output can not be written
+     */
+    public void print(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            printByte(text.charAt(i));
+        }
+    }
+
+    /**
+     * Method for writing the decimal representation of the integer.
+     *
+     * @param value the integer
+     * @throws IOException if the output can not be written
+     */
+    public void printInt(int value) throws IOException {
+        if (buffer.remaining() < MAX_INT_LENGTH) {
+            flush();
+        }
+        long rest = value;
+        if (rest < 0) {
+            buffer.put((byte) '-');
+            rest = -rest;
+        }
+        int digits = 1;
+        for (long left = rest; left >= RADIX; left /= RADIX) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + rest % RADIX));
+            rest /= RADIX;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Method for writing all buffered bytes to the channel.
+     *
+     * @throws IOException if the output can not be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Method for flushing the buffer and closing the channel.
+     *
+     * @throws IOException if the output can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * enumeration of colors of the pieces.
+ */
+enum PieceColor {
+    /**
+     * The color of the white piece.
+     */
+    WHITE("White"),
+    /**
+     * The color of the black piece.
+     */
+    BLACK("Black");
+
+    /**
+     * name of the color in the input.
+     */
+    private final String name;
+
+    /**
+     * Constructor for the color.
+     *
+     * @param colorName the name of the color in the input
+     */
+    PieceColor(String colorName) {
+        name = colorName;
+    }
+
+    /**
+     * Method for getting the name of the color in the input.
+     *
+     * @return the name of the color
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Method for getting the color of the opponent.
+     *
+     * @return the other color
+     */
+    public PieceColor opposite() {
+        return this == WHITE ? BLACK : WHITE;
+    }
+
+    /**
+     * Method for parsing the color of the piece.
+     *
+     * @param color the color of the piece
+     * @return the color of the piece
+     */
+    public static PieceColor parse(String color) {
+        if (color.equals(WHITE.getName())) {
+            return WHITE;
+        } else if (color.equals(BLACK.getName())) {
+            return BLACK;
+        } else {
+            return null;
+        }
+    }
+}
+
+/**
+ * enumeration of types of the pieces.
+ */
+enum PieceType {
+    /**
+     * The type of the king.
+     */
+    KING("King"),
+    /**
+     * The type of the queen.
+     */
+    QUEEN("Queen"),
+    /**
+     * The type of the rook.
+     */
+    ROOK("Rook"),
+    /**
+     * The type of the bishop.
+     */
+    BISHOP("Bishop"),
+    /**
+     * The type of the knight.
+     */
+    KNIGHT("Knight"),
+    /**
+     * The type of the pawn.
+     */
+    PAWN("Pawn");
+
+    /**
+     * name of the type in the input.
+     */
+    private final String name;
+
+    /**
+     * Constructor for the type.
+     *
+     * @param typeName the name of the type in the input
+     */
+    PieceType(String typeName) {
+        name = typeName;
+    }
+
+    /**
+     * Method for getting the name of the type in the input.
+     *
+     * @return the name of the type
+     */
+    public String getName() {
+        return name;
+    }
+}
+
+/**
+ * Interface for diagonal movement.
+ *
+ * @see Bishop
+ * @see Queen
+ */
+interface BishopMovement {
+    /**
+     * Method for counting the possible moves of the bishop.
+     *
+     * @param position  the position of the piece
+     * @param color     the color of the piece
+     * @param rays      the ray index of the board
+     * @return the number of possible diagonal moves
+     */
+    default int getDiagonalMovesCount(PiecePosition position, PieceColor color, RayIndex rays) {
+        return countDiagonalMoves(rays, position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible moves of the bishop on the square.
+     *
+     * @param rays  the ray index of the board
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param color the color of the piece
+     * @return the number of possible diagonal moves
+     */
+    static int countDiagonalMoves(RayIndex rays, int x, int y, PieceColor color) {
+        return rays.getRayMovesCount(x, y, 1, 1, color)
+                + rays.getRayMovesCount(x, y, 1, -1, color)
+                + rays.getRayMovesCount(x, y, -1, 1, color)
+                + rays.getRayMovesCount(x, y, -1, -1, color);
+    }
+
+    /**
+     * Method for counting the possible captures of the bishop.
+     *
+     * @param position  the position of the piece
+     * @param color     the color of the piece
+     * @param rays      the ray index of the board
+     * @return the number of possible diagonal captures
+     */
+    default int getDiagonalCapturesCount(PiecePosition position, PieceColor color, RayIndex rays) {
+        return countDiagonalCaptures(rays, position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible captures of the bishop on the square.
+     *
+     * @param rays  the ray index of the board
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param color the color of the piece
+     * @return the number of possible diagonal captures
+     */
+    static int countDiagonalCaptures(RayIndex rays, int x, int y, PieceColor color) {
+        return rays.getRayCapturesCount(x, y, 1, 1, color)
+                + rays.getRayCapturesCount(x, y, 1, -1, color)
+                + rays.getRayCapturesCount(x, y, -1, 1, color)
+                + rays.getRayCapturesCount(x, y, -1, -1, color);
+    }
+}
+
+/**
+ * Interface for horizontal and vertical movement.
+ *
+ * @see Rook
+ * @see Queen
+ */
+interface RookMovement {
+    /**
+     * Method for counting the possible moves of the rook.
+     *
+     * @param position  the position of the piece
+     * @param color     the color of the piece
+     * @param rays      the ray index of the board
+     * @return the number of possible horizontal and vertical moves
+     */
+    default int getOrthogonalMovesCount(PiecePosition position, PieceColor color, RayIndex rays) {
+        return countOrthogonalMoves(rays, position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible moves of the rook on the square.
+     *
+     * @param rays  the ray index of the board
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param color the color of the piece
+     * @return the number of possible horizontal and vertical moves
+     */
+    static int countOrthogonalMoves(RayIndex rays, int x, int y, PieceColor color) {
+        return rays.getRayMovesCount(x, y, 1, 0, color)
+                + rays.getRayMovesCount(x, y, -1, 0, color)
+                + rays.getRayMovesCount(x, y, 0, 1, color)
+                + rays.getRayMovesCount(x, y, 0, -1, color);
+    }
+
+    /**
+     * Method for counting the possible captures of the rook.
+     *
+     * @param position  the position of the piece
+     * @param color     the color of the piece
+     * @param rays      the ray index of the board
+     * @return the number of possible horizontal and vertical captures
+     */
+    default int getOrthogonalCapturesCount(PiecePosition position, PieceColor color, RayIndex rays) {
+        return countOrthogonalCaptures(rays, position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible captures of the rook on the square.
+     *
+     * @param rays  the ray index of the board
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param color the color of the piece
+     * @return the number of possible horizontal and vertical captures
+     */
+    static int countOrthogonalCaptures(RayIndex rays, int x, int y, PieceColor color) {
+        return rays.getRayCapturesCount(x, y, 1, 0, color)
+                + rays.getRayCapturesCount(x, y, -1, 0, color)
+                + rays.getRayCapturesCount(x, y, 0, 1, color)
+                + rays.getRayCapturesCount(x, y, 0, -1, color);
+    }
+}
+
+/**
+ * enumeration of the storages of the board occupancy.
+ */
+enum BoardStorage {
+    /**
+     * The dense grid and bitboard on the heap.
+     */
+    HEAP("heap"),
+    /**
+     * The dense grid and bitboard in direct buffers.
+     */
+    OFF_HEAP("offheap"),
+    /**
+     * Only the occupied squares and the nonzero bitboard words in hash tables.
+     */
+    SPARSE("sparse");
+
+    /**
+     * name of the storage in the storage property.
+     */
+    private final String name;
+
+    /**
+     * Constructor for the storage.
+     *
+     * @param storageName the name of the storage in the storage property
+     */
+    BoardStorage(String storageName) {
+        name = storageName;
+    }
+
+    /**
+     * Method for getting the name of the storage in the storage property.
+     *
+     * @return the name of the storage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Method for parsing the storage.
+     *
+     * @param storage the name of the storage
+     * @return the storage or null if the name is unknown
+     */
+    public static BoardStorage parse(String storage) {
+        for (BoardStorage value : values()) {
+            if (value.getName().equals(storage)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
+
+/**
+ * Enum for the backends answering the slider rays during the evaluation of the board.
+ */
+enum BoardBackend {
+    /**
+     * The rays are walked square by square over the occupancy grid.
+     */
+    WALK("walk"),
+    /**
+     * The rays are found by scanning the words of the bitboard.
+     */
+    BITBOARD("bitboard"),
+    /**
+     * The sliders are counted by one sweep over the lines of the blocker index.
+     */
+    LINES("lines"),
+    /**
+     * The occupants of the lines of the sliders are listed once per line and shared by the sliders on it.
+     */
+    LAZY_LINES("lazy");
+
+    /**
+     * name of the backend in the backend property.
+     */
+    private final String name;
+
+    /**
+     * Constructor for the backend.
+     *
+     * @param backendName the name of the backend in the backend property
+     */
+    BoardBackend(String backendName) {
+        name = backendName;
+    }
+
+    /**
+     * Method for getting the name of the backend in the backend property.
+     *
+     * @return the name of the backend
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Method for parsing the backend.
+     *
+     * @param backend the name of the backend
+     * @return the backend or null if the name is unknown
+     */
+    public static BoardBackend parse(String backend) {
+        for (BoardBackend value : values()) {
+            if (value.getName().equals(backend)) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
+
+/**
+ * Interface for the receivers of the pieces of a read position.
+ *
+ * @see Main#readPosition(PositionInput, PieceSink)
+ */
+interface PieceSink {
+    /**
+     * Method for removing all pieces and changing the size of the board.
+     *
+     * @param boardSize   the new size of the board
+     * @param piecesCount the expected number of pieces
+     */
+    void clear(int boardSize, long piecesCount);
+
+    /**
+     * Method for checking whether the square is occupied.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return true if there is a piece on the square
+     */
+    boolean isOccupied(int x, int y);
+
+    /**
+     * Method for adding a piece to the board without creating the piece object.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @return the index of the piece in the order of adding
+     */
+    int addPiece(PieceType type, PieceColor color, int x, int y);
+}
+
+/**
+ * Interface for work with the board.
+ * The implementations differ in the structures keeping the pieces and answering the ray queries.
+ *
+ * @see GridBoard
+ */
+interface Board extends PieceSink {
+    /**
+     * system property choosing where the board keeps its squares: heap, offheap, sparse or auto.
+     */
+    String STORAGE_PROPERTY = "chess.board";
+    /**
+     * system property choosing the backend of the evaluation: walk, bitboard, lines, lazy or auto.
+     */
+    String BACKEND_PROPERTY = "chess.backend";
+    /**
+     * largest supported size of the board, the bitsets of a larger board do not fit into one buffer.
+     */
+    int MAX_SIZE = 1 << 15;
+    /**
+     * steps by x of the eight ray directions, the first four are orthogonal.
+     */
+    int[] DIRECTION_XS = {1, -1, 0, 0, 1, 1, -1, -1};
+    /**
+     * steps by y of the eight ray directions, the first four are orthogonal.
+     */
+    int[] DIRECTION_YS = {0, 0, 1, -1, 1, -1, 1, -1};
+    /**
+     * offsets by x of the knight jumps.
+     */
+    int[] KNIGHT_XS = {2, 2, -2, -2, 1, 1, -1, -1};
+    /**
+     * offsets by y of the knight jumps.
+     */
+    int[] KNIGHT_YS = {1, -1, 1, -1, 2, -2, 2, -2};
+
+    /**
+     * Method for creating the board.
+     *
+     * @param boardSize the size of the board
+     * @return the empty board
+     */
+    static Board create(int boardSize) {
+        return new GridBoard(boardSize);
+    }
+
+    /**
+     * Method for creating the board keeping its squares in the given storage for every size.
+     *
+     * @param boardSize the size of the board
+     * @param storage   the storage of the occupancy
+     * @return the empty board
+     */
+    static Board create(int boardSize, BoardStorage storage) {
+        return new GridBoard(boardSize, storage);
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    int getSize();
+
+    /**
+     * Method for getting the number of pieces added to the board.
+     * The removed pieces keep their places in the order of adding.
+     *
+     * @return the number of pieces
+     */
+    int getPiecesCount();
+
+    /**
+     * Method for getting the hash of the position.
+     *
+     * @return the hash of the pieces in the order of adding
+     */
+    long getPositionHash();
+
+    /**
+     * Method for setting the cache of the evaluation results.
+     *
+     * @param cache the cache shared with other boards or null to evaluate every time
+     */
+    void setCache(EvaluationCache cache);
+
+    /**
+     * Method for removing all pieces and changing the size of the board.
+     *
+     * @param boardSize the new size of the board
+     */
+    void clear(int boardSize);
+
+    /**
+     * Method for getting the occupancy grid of the board.
+     *
+     * @return the occupancy grid
+     */
+    SquareGrid getGrid();
+
+    /**
+     * Method for getting the structure answering the slider ray queries.
+     *
+     * @return the structure answering the ray queries
+     */
+    RayIndex getRayIndex();
+
+    /**
+     * Method for getting possible moves count for the piece.
+     *
+     * @param piece the piece
+     * @return the number of possible moves
+     */
+    int getPiecePossibleMovesCount(ChessPiece piece);
+
+    /**
+     * Method for getting possible captures count for the piece.
+     *
+     * @param piece the piece
+     * @return the number of possible captures
+     */
+    int getPiecePossibleCapturesCount(ChessPiece piece);
+
+    /**
+     * Method for evaluating all pieces of the board at once.
+     *
+     * @return the moves and captures counts, two values per piece in the order of adding,
+     *         zeros for the removed pieces
+     */
+    int[] evaluateAll();
+
+    /**
+     * Method for evaluating all pieces of the board into the given buffer.
+     *
+     * @param results the buffer for the moves and captures counts, at least two values per piece
+     */
+    void evaluateAll(int[] results);
+
+    /**
+     * Method for evaluating all pieces of the board in parallel into the given buffer.
+     *
+     * @param results the buffer for the moves and captures counts, at least two values per piece
+     */
+    void evaluateAllParallel(int[] results);
+
+    /**
+     * Method for adding a piece to the board.
+     *
+     * @param piece the piece
+     */
+    void addPiece(ChessPiece piece);
+
+    /**
+     * Method for building the map of the squares attacked by the pieces of both colors.
+     *
+     * @return the attack map of the current position
+     */
+    AttackMap buildAttackMap();
+
+    /**
+     * Method for getting the largest number of moves a piece can have on the board, the moves of a queen
+     * in the middle of the empty board, enough for the buffer of the generated moves.
+     *
+     * @return the largest number of moves of one piece
+     */
+    int getMaxMovesCount();
+
+    /**
+     * Method for writing the destination squares of the possible moves of the piece into the buffer.
+     * The squares are the indices (y - 1) * n + (x - 1) of the grid, the piece itself is the origin
+     * of all of them, and their number is the moves count of the piece.
+     *
+     * @param piece  the piece on the board
+     * @param moves  the buffer of the destination squares
+     * @param offset the index of the buffer to write the first move to
+     * @return the number of the written moves
+     */
+    int generateMoves(ChessPiece piece, int[] moves, int offset);
+
+    /**
+     * Method for writing the destination squares of the possible moves of the piece into the buffer.
+     *
+     * @param piece the piece on the board
+     * @param moves the buffer of the destination squares, filled from its position
+     * @return the number of the written moves
+     */
+    int generateMoves(ChessPiece piece, IntBuffer moves);
+
+    /**
+     * Method for iterating over the destination squares of the possible moves of the piece
+     * without collecting them, the moves are found one by one while iterating.
+     * The board must not change during the iteration.
+     *
+     * @param piece the piece on the board
+     * @return the iterator of the destination squares
+     */
+    PrimitiveIterator.OfInt iterateMoves(ChessPiece piece);
+
+    /**
+     * Method for checking whether the king of the color is attacked by an enemy piece.
+     *
+     * @param color the color of the king
+     * @return true if the king is in check, false if it is not or there is no king of the color
+     */
+    boolean isInCheck(PieceColor color);
+
+    /**
+     * Method for getting the squares next to the king of the color where it would not be in check.
+     * The squares of the own pieces are left out, the squares of the enemy pieces are safe
+     * when the captured piece is not defended.
+     *
+     * @param color the color of the king
+     * @return the safe squares, empty if there is no king of the color
+     */
+    List<PiecePosition> safeKingMoves(PieceColor color);
+
+    /**
+     * Method for removing the piece from the board.
+     *
+     * @param piece the piece on the board
+     */
+    void removePiece(ChessPiece piece);
+
+    /**
+     * Method for moving the piece to the empty square.
+     *
+     * @param piece  the piece on the board
+     * @param target the empty square
+     */
+    void movePiece(ChessPiece piece, PiecePosition target);
+
+    /**
+     * Method for moving the piece to the square of another piece, which is removed.
+     *
+     * @param piece  the piece on the board
+     * @param target the square of the captured piece
+     */
+    void capture(ChessPiece piece, PiecePosition target);
+
+    /**
+     * Method for getting the current moves count of the piece.
+     *
+     * @param piece the piece on the board
+     * @return the number of possible moves
+     */
+    int getCurrentMovesCount(ChessPiece piece);
+
+    /**
+     * Method for getting the current captures count of the piece.
+     *
+     * @param piece the piece on the board
+     * @return the number of possible captures
+     */
+    int getCurrentCapturesCount(ChessPiece piece);
+
+    /**
+     * Method for getting a piece by its position.
+     *
+     * @param position the position of the piece
+     * @return the piece
+     */
+    ChessPiece getPiece(PiecePosition position);
+
+    /**
+     * Method for getting the compatibility view of the board as a map of position to pieces.
+     *
+     * @return the map of position to pieces
+     */
+    Map<String, ChessPiece> getPositionsMap();
+}
+
+/**
+ * Class for the board keeping the occupancy in a grid and a bitboard.
+ * The storage of the occupancy and the backend answering the rays of the evaluation
+ * are chosen by the size of the board, the number of pieces and the share of the sliders.
+ */
+class GridBoard implements Board {
+    /**
+     * number of squares from which the auto storage keeps the board off the heap.
+     */
+    private static final long MIN_OFF_HEAP_SQUARES = 1L << 24;
+    /**
+     * number of squares per piece from which the auto storage keeps the board sparse.
+     */
+    private static final long MIN_SPARSE_SQUARES_PER_PIECE = 1 << 10;
+    /**
+     * number of the orthogonal ray directions.
+     */
+    private static final int ORTHOGONAL_DIRECTIONS = 4;
+    /**
+     * largest size of the board whose rays are walked square by square.
+     */
+    private static final int MAX_WALK_SIZE = 16;
+    /**
+     * largest number of squares per piece for which the rays are walked square by square.
+     */
+    private static final int MAX_SQUARES_PER_WALKED_PIECE = 2;
+    /**
+     * smallest number of pieces per slider for which the blocker index is not built.
+     */
+    private static final int MIN_PIECES_PER_INDEXED_SLIDER = 8;
+    /**
+     * golden ratio increment of the SplitMix64 generator.
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    /**
+     * first multiplier of the SplitMix64 finalizer.
+     */
+    private static final long MIX_MULTIPLIER_1 = 0xBF58476D1CE4E5B9L;
+    /**
+     * second multiplier of the SplitMix64 finalizer.
+     */
+    private static final long MIX_MULTIPLIER_2 = 0x94D049BB133111EBL;
+    /**
+     * first shift of the SplitMix64 finalizer.
+     */
+    private static final int MIX_SHIFT_1 = 30;
+    /**
+     * second shift of the SplitMix64 finalizer.
+     */
+    private static final int MIX_SHIFT_2 = 27;
+    /**
+     * third shift of the SplitMix64 finalizer.
+     */
+    private static final int MIX_SHIFT_3 = 31;
+    /**
+     * number of the bits of the square code in the piece key.
+     */
+    private static final int CODE_BITS = 4;
+    /**
+     * dense occupancy grid of the board.
+     */
+    private SquareGrid grid;
+    /**
+     * bitboard occupancy of the board used for the ray queries.
+     */
+    private BitBoard bitBoard;
+    /**
+     * storage of the grid and the bitboard.
+     */
+    private BoardStorage storage;
+    /**
+     * blocker index of the board, built after all pieces were added.
+     */
+    private BlockerIndex blockerIndex;
+    /**
+     * backend of the evaluation, null until it is chosen for the current pieces.
+     */
+    private BoardBackend backend;
+    /**
+     * occupants of the lines listed by the sliders, null until the lazy backend needs them.
+     */
+    private LineCache lineCache;
+    /**
+     * Zobrist hash of the pieces, the xor of the keys of every piece, its index, square and code.
+     */
+    private long positionHash;
+    /**
+     * cache of the evaluation results or null.
+     */
+    private EvaluationCache cache;
+    /**
+     * pieces of the board in the order of adding.
+     */
+    private final PieceStore store = new PieceStore();
+    /**
+     * piece objects by the index of the piece, created on demand for the pieces added without them.
+     */
+    private ChessPiece[] facades = new ChessPiece[0];
+    /**
+     * map of position to pieces, built only on demand.
+     */
+    private Map<String, ChessPiece> positionsToPieces;
+    /**
+     * index of the king plus one by the ordinal of the color, 0 if there is no king of the color.
+     */
+    private final int[] kings = new int[PieceColor.values().length];
+    /**
+     * whether the counts of the pieces are kept up to date with the changes of the board.
+     */
+    private boolean tracking;
+    /**
+     * index of the piece plus one on every square, 0 for the empty squares, used while tracking.
+     */
+    private int[] squarePieces = new int[0];
+    /**
+     * current moves and captures counts, two values per piece, used while tracking.
+     */
+    private int[] counts = new int[0];
+    /**
+     * iterator reused by the generation of the moves into the buffers.
+     */
+    private final MoveIterator moveIterator = new MoveIterator();
+
+    /**
+     * storage kept for every size of the board or null to choose it by the size and the number of pieces.
+     */
+    private final BoardStorage fixedStorage;
+
+    /**
+     * Constructor for the board choosing its storage.
+     *
+     * @param boardSize the size of the board
+     */
+    GridBoard(int boardSize) {
+        this(boardSize, null);
+    }
+
+    /**
+     * Constructor for the board.
+     *
+     * @param boardSize the size of the board
+     * @param storage   the storage kept for every size or null to choose it
+     */
+    GridBoard(int boardSize, BoardStorage storage) {
+        fixedStorage = storage;
+        allocate(boardSize, chooseStorage(boardSize, (long) boardSize * boardSize));
+    }
+
+    /**
+     * Method for allocating the occupancy of the board in the storage.
+     *
+     * @param boardSize  the size of the board
+     * @param newStorage the storage of the occupancy
+     */
+    private void allocate(int boardSize, BoardStorage newStorage) {
+        storage = newStorage;
+        switch (newStorage) {
+            case OFF_HEAP:
+                grid = new OffHeapSquareGrid(boardSize);
+                bitBoard = new OffHeapBitBoard(boardSize);
+                break;
+            case SPARSE:
+                grid = new SparseSquareGrid(boardSize);
+                bitBoard = new SparseBitBoard(boardSize);
+                break;
+            default:
+                grid = new SquareGrid(boardSize);
+                bitBoard = new BitBoard(boardSize);
+                break;
+        }
+    }
+
+    /**
+     * Method for choosing the storage of the board occupancy, unless the board keeps a fixed one.
+     * The storage property may be "heap", "offheap", "sparse" or "auto".
+     * The auto storage keeps sparse the boards with at least 2^10 squares per piece,
+     * where the dense storage would be almost empty, and keeps off the heap
+     * the other boards of at least 2^24 squares.
+     *
+     * @param boardSize   the size of the board
+     * @param piecesCount the expected number of pieces
+     * @return the storage of the occupancy
+     */
+    private BoardStorage chooseStorage(int boardSize, long piecesCount) {
+        if (fixedStorage != null) {
+            return fixedStorage;
+        }
+        BoardStorage chosen = BoardStorage.parse(System.getProperty(STORAGE_PROPERTY, "auto"));
+        if (chosen != null) {
+            return chosen;
+        }
+        long squares = (long) boardSize * boardSize;
+        if (piecesCount * MIN_SPARSE_SQUARES_PER_PIECE <= squares) {
+            return BoardStorage.SPARSE;
+        }
+        return squares >= MIN_OFF_HEAP_SQUARES ? BoardStorage.OFF_HEAP : BoardStorage.HEAP;
+    }
+
+    /**
+     * Method for getting the storage of the board occupancy.
+     *
+     * @return the storage
+     */
+    public BoardStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Method for getting the backend of the evaluation.
+     * It is chosen once for the position read after clearing the board and kept by the later changes,
+     * which update or drop only the structures the backend reads.
+     *
+     * @return the backend
+     */
+    public BoardBackend getBackend() {
+        if (backend == null) {
+            backend = chooseBackend(getSize(), store.size(), store.getSlidersCount());
+        }
+        return backend;
+    }
+
+    /**
+     * Method for choosing the backend of the evaluation.
+     * The backend property may be "walk", "bitboard", "lines", "lazy" or "auto".
+     * The auto backend walks the grid of the small boards, of the positions without sliders
+     * and of the dense positions, where the rays end after a step or two,
+     * scans the bitboard when the sliders are too few to pay for the blocker index,
+     * and sweeps the lines of the blocker index otherwise.
+     * The lazy line cache is only chosen by the property, listing whole lines never paid off
+     * against the sweep when the sliders are many or against the bitboard when they are few.
+     *
+     * @param boardSize    the size of the board
+     * @param piecesCount  the number of pieces
+     * @param slidersCount the number of sliders
+     * @return the backend
+     */
+    private static BoardBackend chooseBackend(int boardSize, int piecesCount, int slidersCount) {
+        BoardBackend chosen = BoardBackend.parse(System.getProperty(BACKEND_PROPERTY, "auto"));
+        if (chosen != null) {
+            return chosen;
+        }
+        long squares = (long) boardSize * boardSize;
+        if (slidersCount == 0 || boardSize <= MAX_WALK_SIZE
+                || squares <= (long) piecesCount * MAX_SQUARES_PER_WALKED_PIECE) {
+            return BoardBackend.WALK;
+        }
+        if ((long) slidersCount * MIN_PIECES_PER_INDEXED_SLIDER < piecesCount) {
+            return BoardBackend.BITBOARD;
+        }
+        return BoardBackend.LINES;
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    @Override
+    public int getSize() {
+        return grid.getSize();
+    }
+
+    /**
+     * Method for getting the number of pieces added to the board.
+     * The removed pieces keep their places in the order of adding.
+     *
+     * @return the number of pieces
+     */
+    @Override
+    public int getPiecesCount() {
+        return store.size();
+    }
+
+    /**
+     * Method for getting the hash of the position.
+     * Every piece has its own pseudorandom key depending on its index, square and code,
+     * the keys are generated by the SplitMix64 finalizer instead of a table,
+     * which would not fit the squares of the large boards.
+     * The hash is the xor of the keys, so it is updated by every change of the board in constant time.
+     *
+     * @return the hash of the pieces in the order of adding
+     */
+    @Override
+    public long getPositionHash() {
+        return positionHash;
+    }
+
+    /**
+     * Method for setting the cache of the evaluation results.
+     *
+     * @param evaluationCache the cache shared with other boards or null to evaluate every time
+     */
+    @Override
+    public void setCache(EvaluationCache evaluationCache) {
+        cache = evaluationCache;
+    }
+
+    /**
+     * Method for getting the key of the piece in the position hash.
+     *
+     * @param index  the index of the piece
+     * @param square the index of the square of the piece
+     * @param code   the square code of the piece
+     * @return the key of the piece
+     */
+    private static long pieceKey(int index, int square, byte code) {
+        return mix(mix(index) + ((long) square << CODE_BITS | code));
+    }
+
+    /**
+     * Method for mixing the bits of the value by the SplitMix64 finalizer.
+     *
+     * @param value the value
+     * @return the mixed value
+     */
+    private static long mix(long value) {
+        long z = value + GOLDEN_GAMMA;
+        z = (z ^ (z >>> MIX_SHIFT_1)) * MIX_MULTIPLIER_1;
+        z = (z ^ (z >>> MIX_SHIFT_2)) * MIX_MULTIPLIER_2;
+        return z ^ (z >>> MIX_SHIFT_3);
+    }
+
+    /**
+     * Method for getting the key of the evaluation results in the cache.
+     * Besides the pieces it depends on the size of the board and the number of pieces including the removed ones,
+     * which define the length of the results.
+     *
+     * @return the key of the results
+     */
+    private long getCacheKey() {
+        return mix(positionHash + mix((long) getSize() << Integer.SIZE | store.size()));
+    }
+
+    /**
+     * Method for getting the compact storage of the pieces.
+     *
+     * @return the pieces of the board in the order of adding
+     */
+    public PieceStore getPieceStore() {
+        return store;
+    }
+
+    /**
+     * Method for removing all pieces and changing the size of the board.
+     * The storage is chosen as for a full board.
+     *
+     * @param boardSize the new size of the board
+     */
+    @Override
+    public void clear(int boardSize) {
+        clear(boardSize, (long) boardSize * boardSize);
+    }
+
+    /**
+     * Method for removing all pieces and changing the size of the board.
+     * Only the squares of the removed pieces are cleared,
+     * and the storage is reallocated only if the new board does not fit into it
+     * or the expected number of pieces calls for another storage.
+     *
+     * @param boardSize   the new size of the board
+     * @param piecesCount the expected number of pieces
+     */
+    @Override
+    public void clear(int boardSize, long piecesCount) {
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isRemoved(i)) {
+                continue;
+            }
+            int x = store.getX(i);
+            int y = store.getY(i);
+            if (tracking) {
+                squarePieces[grid.index(x, y)] = 0;
+            }
+            grid.remove(x, y);
+            bitBoard.remove(x, y, store.getColor(i));
+        }
+        Arrays.fill(facades, 0, Math.min(facades.length, store.size()), null);
+        tracking = false;
+        Arrays.fill(kings, 0);
+        store.clear();
+        positionsToPieces = null;
+        lineCache = null;
+        positionHash = 0;
+        blockerIndex = null;
+        backend = null;
+        BoardStorage newStorage = chooseStorage(boardSize, piecesCount);
+        if (newStorage != storage) {
+            allocate(boardSize, newStorage);
+        } else {
+            grid.resize(boardSize);
+            bitBoard.resize(boardSize);
+        }
+    }
+
+    /**
+     * Method for getting the occupancy grid of the board.
+     *
+     * @return the occupancy grid
+     */
+    @Override
+    public SquareGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Method for getting the bitboard occupancy of the board.
+     *
+     * @return the bitboard occupancy
+     */
+    public BitBoard getBitBoard() {
+        return bitBoard;
+    }
+
+    /**
+     * Method for building the blocker index of the board.
+     * It should be called once after all pieces were added,
+     * adding a piece afterwards drops the index.
+     */
+    public void buildBlockerIndex() {
+        blockerIndex = new BlockerIndex(grid, store);
+    }
+
+    /**
+     * Method for getting the structure answering the slider ray queries.
+     *
+     * @return the blocker index if it is built, otherwise the structure of the chosen backend
+     */
+    @Override
+    public RayIndex getRayIndex() {
+        if (blockerIndex != null) {
+            return blockerIndex;
+        }
+        switch (getBackend()) {
+            case WALK:
+                return grid;
+            case LAZY_LINES:
+                if (lineCache == null) {
+                    lineCache = new LineCache(grid, bitBoard);
+                }
+                return lineCache;
+            default:
+                return bitBoard;
+        }
+    }
+
+    /**
+     * Method for getting possible moves count for the piece.
+     *
+     * @param piece the piece
+     * @return the number of possible moves
+     */
+    @Override
+    public int getPiecePossibleMovesCount(ChessPiece piece) {
+        return piece.getMovesCount(this);
+    }
+
+    /**
+     * Method for getting possible captures count for the piece.
+     *
+     * @param piece the piece
+     * @return the number of possible captures
+     */
+    @Override
+    public int getPiecePossibleCapturesCount(ChessPiece piece) {
+        return piece.getCapturesCount(this);
+    }
+
+    /**
+     * Method for evaluating all pieces of the board at once.
+     * The other pieces are counted from the occupancy grid, the sliders by the chosen backend.
+     *
+     * @return the moves and captures counts, two values per piece in the order of adding,
+     *         zeros for the removed pieces
+     */
+    @Override
+    public int[] evaluateAll() {
+        int[] results = new int[2 * store.size()];
+        evaluateAll(results);
+        return results;
+    }
+
+    /**
+     * Method for evaluating all pieces of the board into the given buffer.
+     * Once the backend is chosen the evaluation does not allocate,
+     * so the same buffer can be reused for repeated evaluations.
+     * If the board has a cache, the results of a position seen before are copied from it.
+     *
+     * @param results the buffer for the moves and captures counts, at least two values per piece
+     */
+    @Override
+    public void evaluateAll(int[] results) {
+        long key = 0;
+        if (cache != null) {
+            key = getCacheKey();
+            if (cache.get(key, results, 2 * store.size())) {
+                return;
+            }
+        }
+        evaluateUncached(results);
+        if (cache != null) {
+            cache.put(key, results, 2 * store.size());
+        }
+    }
+
+    /**
+     * Method for evaluating all pieces of the board into the given buffer without the cache.
+     *
+     * @param results the buffer for the moves and captures counts, at least two values per piece
+     */
+    private void evaluateUncached(int[] results) {
+        if (getBackend() != BoardBackend.LINES) {
+            RayIndex rays = getRayIndex();
+            for (int i = 0; i < store.size(); i++) {
+                results[2 * i] = store.getMovesCount(i, grid, rays);
+                results[2 * i + 1] = store.getCapturesCount(i, grid, rays);
+            }
+            return;
+        }
+        if (blockerIndex == null) {
+            buildBlockerIndex();
+        }
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isSlider(i)) {
+                results[2 * i] = 0;
+                results[2 * i + 1] = 0;
+            } else {
+                results[2 * i] = store.getMovesCount(i, grid, blockerIndex);
+                results[2 * i + 1] = store.getCapturesCount(i, grid, blockerIndex);
+            }
+        }
+        blockerIndex.addSliderCounts(results);
+    }
+
+    /**
+     * Method for evaluating all pieces of the board in parallel into the given buffer.
+     * The pieces are split into ranges evaluated by the common fork-join pool,
+     * every piece writes only its own two values, so the results keep the order of adding.
+     *
+     * @param results the buffer for the moves and captures counts, at least two values per piece
+     */
+    @Override
+    public void evaluateAllParallel(int[] results) {
+        long key = 0;
+        if (cache != null) {
+            key = getCacheKey();
+            if (cache.get(key, results, 2 * store.size())) {
+                return;
+            }
+        }
+        if (getBackend() == BoardBackend.LINES && blockerIndex == null) {
+            buildBlockerIndex();
+        }
+        RayIndex rays = getRayIndex();
+        if (rays == lineCache) {
+            lineCache.listSliderLines(store);
+        }
+        ForkJoinPool.commonPool().invoke(new EvaluationTask(store, grid, rays, results, 0, store.size()));
+        if (cache != null) {
+            cache.put(key, results, 2 * store.size());
+        }
+    }
+
+    /**
+     * Method for adding a piece to the board.
+     *
+     * @param piece the piece
+     */
+    @Override
+    public void addPiece(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        int index = addPiece(piece.getType(), piece.getColor(), position.getX(), position.getY());
+        if (facades.length <= index) {
+            facades = Arrays.copyOf(facades, Math.max(index + 1, facades.length * 2));
+        }
+        facades[index] = piece;
+    }
+
+    /**
+     * Method for adding a piece to the board without creating the piece object.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @return the index of the piece in the order of adding
+     */
+    @Override
+    public int addPiece(PieceType type, PieceColor color, int x, int y) {
+        grid.put(x, y, type, color);
+        bitBoard.set(x, y, color);
+        int index = store.add(type, color, x, y);
+        positionHash ^= pieceKey(index, grid.index(x, y), SquareGrid.encode(type, color));
+        if (lineCache != null) {
+            lineCache.invalidate(x, y);
+        }
+        if (type == PieceType.KING) {
+            kings[color.ordinal()] = index + 1;
+        }
+        positionsToPieces = null;
+        blockerIndex = null;
+        if (tracking) {
+            squarePieces[grid.index(x, y)] = index + 1;
+            if (counts.length < store.size() * 2) {
+                counts = Arrays.copyOf(counts, Math.max(store.size() * 2, counts.length * 2));
+            }
+            refreshAround(x, y);
+            refresh(index);
+        }
+        return index;
+    }
+
+    /**
+     * Method for building the map of the squares attacked by the pieces of both colors.
+     * The sliders are added by one sweep of every line, the other pieces by their fixed offsets.
+     *
+     * @return the attack map of the current position
+     */
+    @Override
+    public AttackMap buildAttackMap() {
+        if (blockerIndex == null) {
+            buildBlockerIndex();
+        }
+        AttackMap attackMap = new AttackMap(getSize());
+        blockerIndex.addSliderAttacks(attackMap);
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isRemoved(i)) {
+                continue;
+            }
+            int x = store.getX(i);
+            int y = store.getY(i);
+            PieceColor color = store.getColor(i);
+            switch (store.getType(i)) {
+                case KING:
+                    attackMap.addOffsets(x, y, DIRECTION_XS, DIRECTION_YS, color);
+                    break;
+                case KNIGHT:
+                    attackMap.addOffsets(x, y, KNIGHT_XS, KNIGHT_YS, color);
+                    break;
+                case PAWN:
+                    int forward = color == PieceColor.WHITE ? y + 1 : y - 1;
+                    attackMap.addSquare(x - 1, forward, color);
+                    attackMap.addSquare(x + 1, forward, color);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return attackMap;
+    }
+
+    /**
+     * Method for getting the largest number of moves a piece can have on the board, the moves of a queen
+     * in the middle of the empty board, enough for the buffer of the generated moves.
+     *
+     * @return the largest number of moves of one piece
+     */
+    @Override
+    public int getMaxMovesCount() {
+        return 4 * (getSize() - 1);
+    }
+
+    /**
+     * Method for writing the destination squares of the possible moves of the piece into the buffer.
+     * The squares are the indices (y - 1) * n + (x - 1) of the grid, the piece itself is the origin
+     * of all of them, and their number is the moves count of the piece.
+     *
+     * @param piece  the piece on the board
+     * @param moves  the buffer of the destination squares
+     * @param offset the index of the buffer to write the first move to
+     * @return the number of the written moves
+     */
+    @Override
+    public int generateMoves(ChessPiece piece, int[] moves, int offset) {
+        moveIterator.reset(grid, piece);
+        int count = 0;
+        while (moveIterator.hasNext()) {
+            moves[offset + count++] = moveIterator.nextInt();
+        }
+        return count;
+    }
+
+    /**
+     * Method for writing the destination squares of the possible moves of the piece into the buffer.
+     *
+     * @param piece the piece on the board
+     * @param moves the buffer of the destination squares, filled from its position
+     * @return the number of the written moves
+     */
+    @Override
+    public int generateMoves(ChessPiece piece, IntBuffer moves) {
+        moveIterator.reset(grid, piece);
+        int count = 0;
+        while (moveIterator.hasNext()) {
+            moves.put(moveIterator.nextInt());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Method for iterating over the destination squares of the possible moves of the piece
+     * without collecting them, the moves are found one by one while iterating.
+     * The board must not change during the iteration.
+     *
+     * @param piece the piece on the board
+     * @return the iterator of the destination squares
+     */
+    @Override
+    public PrimitiveIterator.OfInt iterateMoves(ChessPiece piece) {
+        MoveIterator iterator = new MoveIterator();
+        iterator.reset(grid, piece);
+        return iterator;
+    }
+
+    /**
+     * Method for checking whether the king of the color is attacked by an enemy piece.
+     *
+     * @param color the color of the king
+     * @return true if the king is in check, false if it is not or there is no king of the color
+     */
+    @Override
+    public boolean isInCheck(PieceColor color) {
+        int king = kings[color.ordinal()] - 1;
+        if (king < 0) {
+            return false;
+        }
+        int x = store.getX(king);
+        int y = store.getY(king);
+        return isAttacked(x, y, color.opposite(), x, y);
+    }
+
+    /**
+     * Method for getting the squares next to the king of the color where it would not be in check.
+     * The squares of the own pieces are left out, the squares of the enemy pieces are safe
+     * when the captured piece is not defended.
+     *
+     * @param color the color of the king
+     * @return the safe squares, empty if there is no king of the color
+     */
+    @Override
+    public List<PiecePosition> safeKingMoves(PieceColor color) {
+        List<PiecePosition> safeMoves = new ArrayList<>();
+        int king = kings[color.ordinal()] - 1;
+        if (king < 0) {
+            return safeMoves;
+        }
+        int kingX = store.getX(king);
+        int kingY = store.getY(king);
+        int size = getSize();
+        for (int direction = 0; direction < DIRECTION_XS.length; direction++) {
+            int x = kingX + DIRECTION_XS[direction];
+            int y = kingY + DIRECTION_YS[direction];
+            if (x < 1 || x > size || y < 1 || y > size || grid.isOccupied(x, y) && grid.getColor(x, y) == color) {
+                continue;
+            }
+            if (!isAttacked(x, y, color.opposite(), kingX, kingY)) {
+                safeMoves.add(new PiecePosition(x, y));
+            }
+        }
+        return safeMoves;
+    }
+
+    /**
+     * Method for checking whether the square is attacked by the pieces of the color.
+     * The lookup goes outwards from the square along the eight rays and the knight jumps,
+     * so it costs the number of directions instead of the number of the enemy pieces.
+     *
+     * @param x        the x coordinate of the square
+     * @param y        the y coordinate of the square
+     * @param attacker the color of the attacking pieces
+     * @param ignoredX the x coordinate of the square considered empty, the origin of the moving king
+     * @param ignoredY the y coordinate of the square considered empty
+     * @return true if a piece of the color attacks the square
+     */
+    private boolean isAttacked(int x, int y, PieceColor attacker, int ignoredX, int ignoredY) {
+        int size = getSize();
+        for (int jump = 0; jump < KNIGHT_XS.length; jump++) {
+            int pieceX = x + KNIGHT_XS[jump];
+            int pieceY = y + KNIGHT_YS[jump];
+            if (pieceX >= 1 && pieceX <= size && pieceY >= 1 && pieceY <= size
+                    && grid.getType(pieceX, pieceY) == PieceType.KNIGHT && grid.getColor(pieceX, pieceY) == attacker) {
+                return true;
+            }
+        }
+        int pawnStep = attacker == PieceColor.WHITE ? -1 : 1;
+        for (int direction = 0; direction < DIRECTION_XS.length; direction++) {
+            int dx = DIRECTION_XS[direction];
+            int dy = DIRECTION_YS[direction];
+            int distance = bitBoard.getBlockerDistance(x, y, dx, dy);
+            int pieceX = x + distance * dx;
+            int pieceY = y + distance * dy;
+            if (distance != 0 && pieceX == ignoredX && pieceY == ignoredY) {
+                int further = bitBoard.getBlockerDistance(pieceX, pieceY, dx, dy);
+                distance = further == 0 ? 0 : distance + further;
+                pieceX = x + distance * dx;
+                pieceY = y + distance * dy;
+            }
+            if (distance == 0 || grid.getColor(pieceX, pieceY) != attacker) {
+                continue;
+            }
+            PieceType type = grid.getType(pieceX, pieceY);
+            boolean orthogonal = direction < ORTHOGONAL_DIRECTIONS;
+            if (type == PieceType.QUEEN || type == (orthogonal ? PieceType.ROOK : PieceType.BISHOP)
+                    || distance == 1 && type == PieceType.KING
+                    || distance == 1 && type == PieceType.PAWN && !orthogonal && dy == pawnStep) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for removing the piece from the board.
+     * While the counts are tracked, only the pieces seeing the square are recounted.
+     *
+     * @param piece the piece on the board
+     * @throws IllegalArgumentException if the piece is not on the board
+     */
+    @Override
+    public void removePiece(ChessPiece piece) {
+        startTracking();
+        PiecePosition position = piece.getPosition();
+        int index = findPiece(piece);
+        grid.remove(position.getX(), position.getY());
+        bitBoard.remove(position.getX(), position.getY(), piece.getColor());
+        squarePieces[grid.index(position.getX(), position.getY())] = 0;
+        positionHash ^= pieceKey(index, grid.index(position.getX(), position.getY()),
+                SquareGrid.encode(piece.getType(), piece.getColor()));
+        store.remove(index);
+        if (lineCache != null) {
+            lineCache.invalidate(position.getX(), position.getY());
+        }
+        facades[index] = null;
+        if (kings[piece.getColor().ordinal()] == index + 1) {
+            kings[piece.getColor().ordinal()] = 0;
+        }
+        positionsToPieces = null;
+        blockerIndex = null;
+        counts[2 * index] = 0;
+        counts[2 * index + 1] = 0;
+        refreshAround(position.getX(), position.getY());
+    }
+
+    /**
+     * Method for moving the piece to the empty square.
+     * While the counts are tracked, only the moved piece and the pieces seeing
+     * the left or the taken square are recounted.
+     *
+     * @param piece  the piece on the board
+     * @param target the empty square
+     * @throws IllegalArgumentException if the piece is not on the board or the target is not an empty square of it
+     */
+    @Override
+    public void movePiece(ChessPiece piece, PiecePosition target) {
+        startTracking();
+        PiecePosition position = piece.getPosition();
+        int index = findPiece(piece);
+        checkOnBoard(target);
+        if (grid.isOccupied(target.getX(), target.getY())) {
+            throw new IllegalArgumentException("The target square is occupied");
+        }
+        grid.remove(position.getX(), position.getY());
+        bitBoard.remove(position.getX(), position.getY(), piece.getColor());
+        squarePieces[grid.index(position.getX(), position.getY())] = 0;
+        piece.moveTo(target);
+        store.move(index, target.getX(), target.getY());
+        grid.put(target.getX(), target.getY(), piece.getType(), piece.getColor());
+        bitBoard.set(target.getX(), target.getY(), piece.getColor());
+        squarePieces[grid.index(target.getX(), target.getY())] = index + 1;
+        byte code = SquareGrid.encode(piece.getType(), piece.getColor());
+        positionHash ^= pieceKey(index, grid.index(position.getX(), position.getY()), code)
+                ^ pieceKey(index, grid.index(target.getX(), target.getY()), code);
+        if (lineCache != null) {
+            lineCache.invalidate(position.getX(), position.getY());
+            lineCache.invalidate(target.getX(), target.getY());
+        }
+        positionsToPieces = null;
+        blockerIndex = null;
+        refreshAround(position.getX(), position.getY());
+        refreshAround(target.getX(), target.getY());
+        refresh(index);
+    }
+
+    /**
+     * Method for moving the piece to the square of another piece, which is removed.
+     * Everything is checked before the board is changed, so a rejected capture leaves it as it was.
+     *
+     * @param piece  the piece on the board
+     * @param target the square of the captured piece
+     * @throws IllegalArgumentException if the piece is not on the board
+     *                                  or the target is not a square of the board with a piece of the other color
+     */
+    @Override
+    public void capture(ChessPiece piece, PiecePosition target) {
+        startTracking();
+        findPiece(piece);
+        checkOnBoard(target);
+        ChessPiece captured = getPiece(target);
+        if (captured == null) {
+            throw new IllegalArgumentException("The target square is empty");
+        }
+        if (captured == piece) {
+            throw new IllegalArgumentException("The target square is the square of the piece");
+        }
+        if (captured.getColor() == piece.getColor()) {
+            throw new IllegalArgumentException("The target square holds a piece of the same color");
+        }
+        removePiece(captured);
+        movePiece(piece, target);
+    }
+
+    /**
+     * Method for finding the index of the piece on the board while tracking.
+     * The position of the piece is checked first, as an outside one is not a square of the tracked index.
+     *
+     * @param piece the piece
+     * @return the index of the piece in the order of adding
+     * @throws IllegalArgumentException if the piece is not on the board
+     */
+    private int findPiece(ChessPiece piece) {
+        PiecePosition position = piece.getPosition();
+        if (!isOnBoard(position)) {
+            throw new IllegalArgumentException("The piece is not on the board");
+        }
+        int index = getPieceIndex(position.getX(), position.getY());
+        if (index < 0 || index >= facades.length || facades[index] != piece) {
+            throw new IllegalArgumentException("The piece is not on the board");
+        }
+        return index;
+    }
+
+    /**
+     * Method for checking that the target square of a move is on the board,
+     * an outside one would be indexed into another rank or past the structures of the board.
+     *
+     * @param target the target square
+     * @throws IllegalArgumentException if the square is outside of the board
+     */
+    private void checkOnBoard(PiecePosition target) {
+        if (!isOnBoard(target)) {
+            throw new IllegalArgumentException("The target square is outside of the board");
+        }
+    }
+
+    /**
+     * Method for checking whether the square is on the board.
+     *
+     * @param position the square
+     * @return true if both coordinates are in [1, size]
+     */
+    private boolean isOnBoard(PiecePosition position) {
+        int size = getSize();
+        return position.getX() >= 1 && position.getX() <= size && position.getY() >= 1 && position.getY() <= size;
+    }
+
+    /**
+     * Method for getting the current moves count of the piece.
+     * The counts are computed for the whole board on the first query
+     * and then kept up to date by the changes of the board.
+     *
+     * @param piece the piece on the board
+     * @return the number of possible moves
+     */
+    @Override
+    public int getCurrentMovesCount(ChessPiece piece) {
+        startTracking();
+        return counts[2 * getPieceIndex(piece.getPosition().getX(), piece.getPosition().getY())];
+    }
+
+    /**
+     * Method for getting the current captures count of the piece.
+     * The counts are computed for the whole board on the first query
+     * and then kept up to date by the changes of the board.
+     *
+     * @param piece the piece on the board
+     * @return the number of possible captures
+     */
+    @Override
+    public int getCurrentCapturesCount(ChessPiece piece) {
+        startTracking();
+        return counts[2 * getPieceIndex(piece.getPosition().getX(), piece.getPosition().getY()) + 1];
+    }
+
+    /**
+     * Method for starting to keep the counts of the pieces up to date.
+     * The counts of all pieces are computed once, later changes recount only the affected pieces.
+     */
+    private void startTracking() {
+        if (tracking) {
+            return;
+        }
+        int squares = getSize() * getSize();
+        if (squarePieces.length < squares) {
+            squarePieces = new int[squares];
+        }
+        if (counts.length < store.size() * 2) {
+            counts = new int[store.size() * 2];
+        }
+        for (int i = 0; i < store.size(); i++) {
+            if (!store.isRemoved(i)) {
+                squarePieces[grid.index(store.getX(i), store.getY(i))] = i + 1;
+            }
+        }
+        evaluateAll(counts);
+        tracking = true;
+    }
+
+    /**
+     * Method for getting the index of the piece on the square while tracking.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the index of the piece in the order of adding or -1 if the square is empty
+     */
+    private int getPieceIndex(int x, int y) {
+        return squarePieces[grid.index(x, y)] - 1;
+    }
+
+    /**
+     * Method for recounting the pieces whose moves may pass through the changed square:
+     * the nearest sliders along the eight rays, the knights a jump away,
+     * and the kings and pawns next to the square.
+     *
+     * @param x the x coordinate of the changed square
+     * @param y the y coordinate of the changed square
+     */
+    private void refreshAround(int x, int y) {
+        int size = getSize();
+        for (int direction = 0; direction < DIRECTION_XS.length; direction++) {
+            int dx = DIRECTION_XS[direction];
+            int dy = DIRECTION_YS[direction];
+            int distance = bitBoard.getBlockerDistance(x, y, dx, dy);
+            if (distance == 0) {
+                continue;
+            }
+            int pieceX = x + distance * dx;
+            int pieceY = y + distance * dy;
+            PieceType type = grid.getType(pieceX, pieceY);
+            boolean slider = type == PieceType.QUEEN
+                    || type == (direction < ORTHOGONAL_DIRECTIONS ? PieceType.ROOK : PieceType.BISHOP);
+            boolean near = distance == 1 && (type == PieceType.KING || type == PieceType.PAWN);
+            if (slider || near) {
+                refresh(getPieceIndex(pieceX, pieceY));
+            }
+        }
+        for (int jump = 0; jump < KNIGHT_XS.length; jump++) {
+            int pieceX = x + KNIGHT_XS[jump];
+            int pieceY = y + KNIGHT_YS[jump];
+            if (pieceX >= 1 && pieceX <= size && pieceY >= 1 && pieceY <= size
+                    && grid.getType(pieceX, pieceY) == PieceType.KNIGHT) {
+                refresh(getPieceIndex(pieceX, pieceY));
+            }
+        }
+    }
+
+    /**
+     * Method for recounting the moves and captures of one piece.
+     *
+     * @param index the index of the piece in the order of adding
+     */
+    private void refresh(int index) {
+        counts[2 * index] = store.getMovesCount(index, grid, getRayIndex());
+        counts[2 * index + 1] = store.getCapturesCount(index, grid, getRayIndex());
+    }
+
+    /**
+     * Method for checking whether the square is occupied.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return true if there is a piece on the square
+     */
+    @Override
+    public boolean isOccupied(int x, int y) {
+        return grid.isOccupied(x, y);
+    }
+
+    /**
+     * Method for getting a piece by its position.
+     *
+     * @param position the position of the piece
+     * @return the piece
+     */
+    @Override
+    public ChessPiece getPiece(PiecePosition position) {
+        if (!grid.isOccupied(position.getX(), position.getY())) {
+            return null;
+        }
+        if (tracking) {
+            return getFacade(getPieceIndex(position.getX(), position.getY()));
+        }
+        if (blockerIndex != null) {
+            return getFacade(blockerIndex.getPieceAt(position.getX(), position.getY()));
+        }
+        return getPositionsMap().get(position.toString());
+    }
+
+    /**
+     * Method for getting the object of the piece, created on the first request
+     * if the piece was added without it.
+     *
+     * @param index the index of the piece in the order of adding
+     * @return the piece
+     */
+    private ChessPiece getFacade(int index) {
+        if (facades.length <= index) {
+            facades = Arrays.copyOf(facades, Math.max(index + 1, store.size()));
+        }
+        if (facades[index] == null) {
+            PiecePosition position = new PiecePosition(store.getX(index), store.getY(index));
+            facades[index] = ChessPiece.create(store.getType(index), position, store.getColor(index));
+        }
+        return facades[index];
+    }
+
+    /**
+     * Method for getting the compatibility view of the board as a map of position to pieces.
+     * The view is built on the first call after the board was changed.
+     *
+     * @return the map of position to pieces
+     */
+    @Override
+    public Map<String, ChessPiece> getPositionsMap() {
+        if (positionsToPieces == null) {
+            positionsToPieces = new HashMap<>();
+            for (int i = 0; i < store.size(); i++) {
+                if (!store.isRemoved(i)) {
+                    ChessPiece piece = getFacade(i);
+                    positionsToPieces.put(piece.getPosition().toString(), piece);
+                }
+            }
+        }
+        return positionsToPieces;
+    }
+}
+
+/**
+ * Class for the bounded cache of the evaluation results by the position hash.
+ * The least recently used results are evicted once the cached results exceed the memory budget.
+ * The cache is shared by the boards of the batch and of the server connections, so it is synchronized.
+ */
+class EvaluationCache {
+    /**
+     * system property setting the memory budget of the shared cache in bytes, 0 disables the cache.
+     */
+    static final String BUDGET_PROPERTY = "chess.cacheBytes";
+    /**
+     * system property printing the statistics of the shared cache to the standard error, "true" enables it.
+     */
+    static final String STATISTICS_PROPERTY = "chess.cacheStats";
+    /**
+     * default memory budget of the shared cache in bytes.
+     */
+    private static final long DEFAULT_BUDGET = 64L << 20;
+    /**
+     * estimated number of bytes taken by one entry besides its results.
+     */
+    private static final int ENTRY_BYTES = 96;
+    /**
+     * initial capacity of the map of the entries.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * load factor of the map of the entries.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * memory budget of the cache in bytes.
+     */
+    private final long budget;
+    /**
+     * cached results by the position hash in the order of access, the least recently used first.
+     */
+    private final LinkedHashMap<Long, int[]> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    /**
+     * estimated number of bytes taken by the entries.
+     */
+    private long usedBytes;
+    /**
+     * number of the found positions.
+     */
+    private long hits;
+    /**
+     * number of the positions not found.
+     */
+    private long misses;
+    /**
+     * number of the evicted entries.
+     */
+    private long evictions;
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param budgetBytes the memory budget of the cache in bytes
+     */
+    EvaluationCache(long budgetBytes) {
+        budget = budgetBytes;
+    }
+
+    /**
+     * Method for creating the cache with the budget of the budget property.
+     *
+     * @return the cache or null if the budget is 0
+     */
+    static EvaluationCache create() {
+        long budgetBytes = Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+        return budgetBytes > 0 ? new EvaluationCache(budgetBytes) : null;
+    }
+
+    /**
+     * Method for copying the cached results of the position.
+     *
+     * @param hash    the hash of the position
+     * @param results the buffer for the results
+     * @param length  the number of the results
+     * @return true if the position is found
+     */
+    public synchronized boolean get(long hash, int[] results, int length) {
+        int[] cached = entries.get(hash);
+        if (cached == null || cached.length != length) {
+            misses++;
+            return false;
+        }
+        hits++;
+        System.arraycopy(cached, 0, results, 0, length);
+        return true;
+    }
+
+    /**
+     * Method for caching the results of the position, evicting the least recently used entries over the budget.
+     * The results larger than the whole budget are not cached.
+     *
+     * @param hash    the hash of the position
+     * @param results the results
+     * @param length  the number of the results
+     */
+    public synchronized void put(long hash, int[] results, int length) {
+        long bytes = getEntryBytes(length);
+        if (bytes > budget) {
+            return;
+        }
+        int[] previous = entries.put(hash, Arrays.copyOf(results, length));
+        if (previous != null) {
+            usedBytes -= getEntryBytes(previous.length);
+        }
+        usedBytes += bytes;
+        Iterator<int[]> eldest = entries.values().iterator();
+        while (usedBytes > budget) {
+            usedBytes -= getEntryBytes(eldest.next().length);
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Method for describing the statistics of the cache in one line.
+     *
+     * @return the numbers of the hits, misses, evictions and entries and the used bytes
+     */
+    public synchronized String getStatistics() {
+        return "cache hits=" + hits + " misses=" + misses + " evictions=" + evictions + " entries=" + entries.size()
+                + " bytes=" + usedBytes;
+    }
+
+    /**
+     * Method for estimating the memory taken by one entry.
+     *
+     * @param length the number of the results
+     * @return the number of bytes
+     */
+    private static long getEntryBytes(int length) {
+        return ENTRY_BYTES + (long) length * Integer.BYTES;
+    }
+
+    /**
+     * Method for getting the number of the found positions.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Method for getting the number of the positions not found.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Method for getting the number of the evicted entries.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Method for getting the number of the cached positions.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Method for getting the estimated memory taken by the cached results.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+}
+
+/**
+ * Class for the parallel evaluation of a range of pieces.
+ * Large ranges are split in halves until they are small enough to be evaluated directly.
+ */
+class EvaluationTask extends RecursiveAction {
+    /**
+     * version of the serialized form, required of every fork-join task although the task is never serialized.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * number of pieces evaluated without further splitting.
+     */
+    private static final int THRESHOLD = 1 << 12;
+    /**
+     * the pieces of the board in the order of adding.
+     */
+    private final transient PieceStore store;
+    /**
+     * the occupancy grid of the board.
+     */
+    private final transient SquareGrid grid;
+    /**
+     * the ray index of the board.
+     */
+    private final transient RayIndex rays;
+    /**
+     * the moves and captures counts, two values per piece.
+     */
+    private final int[] results;
+    /**
+     * the first piece of the range.
+     */
+    private final int from;
+    /**
+     * the end of the range, exclusive.
+     */
+    private final int to;
+
+    /**
+     * Constructor for the task.
+     *
+     * @param pieceStore the pieces of the board in the order of adding
+     * @param occupancy  the occupancy grid of the board
+     * @param rayIndex   the ray index of the board
+     * @param counts     the buffer for the moves and captures counts
+     * @param rangeFrom  the first piece of the range
+     * @param rangeTo    the end of the range, exclusive
+     */
+    EvaluationTask(PieceStore pieceStore, SquareGrid occupancy, RayIndex rayIndex, int[] counts, int rangeFrom,
+                   int rangeTo) {
+        store = pieceStore;
+        grid = occupancy;
+        rays = rayIndex;
+        results = counts;
+        from = rangeFrom;
+        to = rangeTo;
+    }
+
+    /**
+     * Method for evaluating the range of pieces.
+     */
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            for (int i = from; i < to; i++) {
+                results[2 * i] = store.getMovesCount(i, grid, rays);
+                results[2 * i + 1] = store.getCapturesCount(i, grid, rays);
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new EvaluationTask(store, grid, rays, results, from, middle),
+                new EvaluationTask(store, grid, rays, results, middle, to));
+    }
+}
+
+/**
+ * Class for the compact storage of the pieces in parallel primitive arrays.
+ * A piece is an index into the arrays, so no objects are created per piece,
+ * and the moves and captures are counted by a switch on the stored type code.
+ */
+class PieceStore {
+    /**
+     * type code of the removed piece.
+     */
+    private static final byte REMOVED = 0;
+    /**
+     * type code of the king, the ordinal of the type plus one as in the square grid.
+     */
+    private static final byte KING = 1;
+    /**
+     * type code of the queen.
+     */
+    private static final byte QUEEN = 2;
+    /**
+     * type code of the rook.
+     */
+    private static final byte ROOK = 3;
+    /**
+     * type code of the bishop.
+     */
+    private static final byte BISHOP = 4;
+    /**
+     * type code of the knight.
+     */
+    private static final byte KNIGHT = 5;
+    /**
+     * type code of the pawn.
+     */
+    private static final byte PAWN = 6;
+    /**
+     * initial number of the stored pieces.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * types by the ordinal.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * colors by the ordinal.
+     */
+    private static final PieceColor[] COLORS = PieceColor.values();
+    /**
+     * x coordinates of the pieces.
+     */
+    private int[] xs = new int[INITIAL_CAPACITY];
+    /**
+     * y coordinates of the pieces.
+     */
+    private int[] ys = new int[INITIAL_CAPACITY];
+    /**
+     * type codes of the pieces.
+     */
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    /**
+     * color ordinals of the pieces.
+     */
+    private byte[] colors = new byte[INITIAL_CAPACITY];
+    /**
+     * number of the stored pieces including the removed ones.
+     */
+    private int count;
+    /**
+     * number of the stored sliders which are not removed.
+     */
+    private int slidersCount;
+
+    /**
+     * Method for adding the piece to the end of the store.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @return the index of the piece
+     */
+    public int add(PieceType type, PieceColor color, int x, int y) {
+        if (count == xs.length) {
+            int capacity = count * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        types[count] = (byte) SquareGrid.typeCode(type);
+        colors[count] = (byte) color.ordinal();
+        if (isSlider(count)) {
+            slidersCount++;
+        }
+        return count++;
+    }
+
+    /**
+     * Method for getting the number of the stored pieces.
+     *
+     * @return the number of the pieces including the removed ones
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Method for removing all pieces, the arrays are kept for the next position.
+     */
+    public void clear() {
+        count = 0;
+        slidersCount = 0;
+    }
+
+    /**
+     * Method for getting the number of the sliders.
+     *
+     * @return the number of the queens, the rooks and the bishops which are not removed
+     */
+    public int getSlidersCount() {
+        return slidersCount;
+    }
+
+    /**
+     * Method for getting the x coordinate of the piece.
+     *
+     * @param index the index of the piece
+     * @return the x coordinate
+     */
+    public int getX(int index) {
+        return xs[index];
+    }
+
+    /**
+     * Method for getting the y coordinate of the piece.
+     *
+     * @param index the index of the piece
+     * @return the y coordinate
+     */
+    public int getY(int index) {
+        return ys[index];
+    }
+
+    /**
+     * Method for getting the type of the piece.
+     *
+     * @param index the index of the piece
+     * @return the type or null if the piece is removed
+     */
+    public PieceType getType(int index) {
+        return types[index] == REMOVED ? null : TYPES[types[index] - 1];
+    }
+
+    /**
+     * Method for getting the color of the piece.
+     *
+     * @param index the index of the piece
+     * @return the color
+     */
+    public PieceColor getColor(int index) {
+        return COLORS[colors[index]];
+    }
+
+    /**
+     * Method for checking whether the piece is removed.
+     *
+     * @param index the index of the piece
+     * @return true if the piece is removed
+     */
+    public boolean isRemoved(int index) {
+        return types[index] == REMOVED;
+    }
+
+    /**
+     * Method for checking whether the piece moves along the lines.
+     *
+     * @param index the index of the piece
+     * @return true for the queens, the rooks and the bishops
+     */
+    public boolean isSlider(int index) {
+        byte type = types[index];
+        return type == QUEEN || type == ROOK || type == BISHOP;
+    }
+
+    /**
+     * Method for moving the piece to another square.
+     *
+     * @param index the index of the piece
+     * @param x     the new x coordinate
+     * @param y     the new y coordinate
+     */
+    public void move(int index, int x, int y) {
+        xs[index] = x;
+        ys[index] = y;
+    }
+
+    /**
+     * Method for removing the piece, its index stays taken.
+     *
+     * @param index the index of the piece
+     */
+    public void remove(int index) {
+        if (isSlider(index)) {
+            slidersCount--;
+        }
+        types[index] = REMOVED;
+    }
+
+    /**
+     * Method for counting the possible moves of the piece.
+     *
+     * @param index the index of the piece
+     * @param grid  the occupancy grid of the board
+     * @param rays  the ray index of the board
+     * @return the number of possible moves, 0 for the removed piece
+     */
+    public int getMovesCount(int index, SquareGrid grid, RayIndex rays) {
+        int x = xs[index];
+        int y = ys[index];
+        PieceColor color = COLORS[colors[index]];
+        switch (types[index]) {
+            case KING:
+                return King.countMoves(grid, x, y, color);
+            case QUEEN:
+                return BishopMovement.countDiagonalMoves(rays, x, y, color)
+                        + RookMovement.countOrthogonalMoves(rays, x, y, color);
+            case ROOK:
+                return RookMovement.countOrthogonalMoves(rays, x, y, color);
+            case BISHOP:
+                return BishopMovement.countDiagonalMoves(rays, x, y, color);
+            case KNIGHT:
+                return Knight.countMoves(grid, x, y, color);
+            case PAWN:
+                return Pawn.countMoves(grid, x, y, color);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Method for counting the possible captures of the piece.
+     *
+     * @param index the index of the piece
+     * @param grid  the occupancy grid of the board
+     * @param rays  the ray index of the board
+     * @return the number of possible captures, 0 for the removed piece
+     */
+    public int getCapturesCount(int index, SquareGrid grid, RayIndex rays) {
+        int x = xs[index];
+        int y = ys[index];
+        PieceColor color = COLORS[colors[index]];
+        switch (types[index]) {
+            case KING:
+                return King.countCaptures(grid, x, y, color);
+            case QUEEN:
+                return BishopMovement.countDiagonalCaptures(rays, x, y, color)
+                        + RookMovement.countOrthogonalCaptures(rays, x, y, color);
+            case ROOK:
+                return RookMovement.countOrthogonalCaptures(rays, x, y, color);
+            case BISHOP:
+                return BishopMovement.countDiagonalCaptures(rays, x, y, color);
+            case KNIGHT:
+                return Knight.countCaptures(grid, x, y, color);
+            case PAWN:
+                return Pawn.countCaptures(grid, x, y, color);
+            default:
+                return 0;
+        }
+    }
+}
+
+/**
+ * Class for the fixed steps of the king and the knight.
+ * The steps which stay on the board depend only on the distances from the square to the edges,
+ * clipped by the longest step, so they are precomputed as bit masks for every class of these distances.
+ * The interior squares fall into one class with all steps, so the counting is a loop
+ * over the grid indices of the steps without any bounds checks.
+ */
+final class StepTable {
+    /**
+     * steps of the king.
+     */
+    static final StepTable KING = new StepTable(Board.DIRECTION_XS, Board.DIRECTION_YS);
+    /**
+     * jumps of the knight.
+     */
+    static final StepTable KNIGHT = new StepTable(Board.KNIGHT_XS, Board.KNIGHT_YS);
+    /**
+     * steps by x.
+     */
+    private final int[] xs;
+    /**
+     * steps by y.
+     */
+    private final int[] ys;
+    /**
+     * length of the longest step by one coordinate.
+     */
+    private final int margin;
+    /**
+     * number of the classes of the distance to one edge.
+     */
+    private final int classes;
+    /**
+     * masks of the steps staying on the board by the classes of the distances to the four edges.
+     */
+    private final int[] masks;
+
+    /**
+     * Constructor for the step table.
+     *
+     * @param stepXs the steps by x
+     * @param stepYs the steps by y
+     */
+    private StepTable(int[] stepXs, int[] stepYs) {
+        xs = stepXs;
+        ys = stepYs;
+        int longest = 0;
+        for (int step = 0; step < xs.length; step++) {
+            longest = Math.max(longest, Math.max(Math.abs(xs[step]), Math.abs(ys[step])));
+        }
+        margin = longest;
+        classes = margin + 1;
+        masks = new int[classes * classes * classes * classes];
+        for (int left = 0; left < classes; left++) {
+            for (int right = 0; right < classes; right++) {
+                for (int down = 0; down < classes; down++) {
+                    for (int up = 0; up < classes; up++) {
+                        int mask = 0;
+                        for (int step = 0; step < xs.length; step++) {
+                            if (-xs[step] <= left && xs[step] <= right && -ys[step] <= down && ys[step] <= up) {
+                                mask |= 1 << step;
+                            }
+                        }
+                        masks[((left * classes + right) * classes + down) * classes + up] = mask;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for getting the grid index offsets of the steps.
+     *
+     * @param boardSize the size of the board
+     * @return the offsets in the order of the steps
+     */
+    public int[] getOffsets(int boardSize) {
+        int[] offsets = new int[xs.length];
+        for (int step = 0; step < xs.length; step++) {
+            offsets[step] = ys[step] * boardSize + xs[step];
+        }
+        return offsets;
+    }
+
+    /**
+     * Method for getting the steps staying on the board.
+     *
+     * @param x         the x coordinate of the square
+     * @param y         the y coordinate of the square
+     * @param boardSize the size of the board
+     * @return the mask with the bits of the steps staying on the board
+     */
+    public int getMask(int x, int y, int boardSize) {
+        int left = Math.min(x - 1, margin);
+        int right = Math.min(boardSize - x, margin);
+        int down = Math.min(y - 1, margin);
+        int up = Math.min(boardSize - y, margin);
+        return masks[((left * classes + right) * classes + down) * classes + up];
+    }
+
+    /**
+     * Method for counting the steps to the empty squares and to the squares of the enemy pieces.
+     *
+     * @param grid    the occupancy grid of the board
+     * @param offsets the grid index offsets of the steps for the size of the board
+     * @param x       the x coordinate of the piece
+     * @param y       the y coordinate of the piece
+     * @param color   the color of the piece
+     * @return the number of possible moves
+     */
+    public int countMoves(SquareGrid grid, int[] offsets, int x, int y, PieceColor color) {
+        int square = grid.index(x, y);
+        int own = color == PieceColor.BLACK ? SquareGrid.BLACK_BIT : 0;
+        int movesCount = 0;
+        for (int mask = getMask(x, y, grid.getSize()); mask != 0; mask &= mask - 1) {
+            byte code = grid.read(square + offsets[Integer.numberOfTrailingZeros(mask)]);
+            if (code == SquareGrid.EMPTY || (code & SquareGrid.BLACK_BIT) != own) {
+                movesCount++;
+            }
+        }
+        return movesCount;
+    }
+
+    /**
+     * Method for counting the steps to the squares of the enemy pieces.
+     *
+     * @param grid    the occupancy grid of the board
+     * @param offsets the grid index offsets of the steps for the size of the board
+     * @param x       the x coordinate of the piece
+     * @param y       the y coordinate of the piece
+     * @param color   the color of the piece
+     * @return the number of possible captures
+     */
+    public int countCaptures(SquareGrid grid, int[] offsets, int x, int y, PieceColor color) {
+        int square = grid.index(x, y);
+        int own = color == PieceColor.BLACK ? SquareGrid.BLACK_BIT : 0;
+        int capturesCount = 0;
+        for (int mask = getMask(x, y, grid.getSize()); mask != 0; mask &= mask - 1) {
+            byte code = grid.read(square + offsets[Integer.numberOfTrailingZeros(mask)]);
+            if (code != SquareGrid.EMPTY && (code & SquareGrid.BLACK_BIT) != own) {
+                capturesCount++;
+            }
+        }
+        return capturesCount;
+    }
+}
+
+/**
+ * Class for the dense occupancy grid of the board.
+ * Every square is stored as one byte at index (y - 1) * n + (x - 1),
+ * where the lower bits hold the piece type and one bit holds the color.
+ */
+class SquareGrid implements RayIndex {
+    /**
+     * code of the empty square.
+     */
+    static final byte EMPTY = 0;
+    /**
+     * bit of the square code marking the black piece.
+     */
+    static final int BLACK_BIT = 8;
+    /**
+     * mask of the square code holding the piece type.
+     */
+    static final int TYPE_MASK = 7;
+    /**
+     * types of the pieces by their codes.
+     */
+    private static final PieceType[] TYPES = PieceType.values();
+    /**
+     * codes of the squares.
+     */
+    private byte[] squares;
+    /**
+     * size of the board.
+     */
+    private int size;
+    /**
+     * index offsets of the king steps for the size of the board.
+     */
+    private int[] kingOffsets;
+    /**
+     * index offsets of the knight jumps for the size of the board.
+     */
+    private int[] knightOffsets;
+
+    /**
+     * Constructor for the grid.
+     *
+     * @param boardSize the size of the board
+     */
+    SquareGrid(int boardSize) {
+        size = boardSize;
+        allocate(boardSize * boardSize);
+        kingOffsets = StepTable.KING.getOffsets(boardSize);
+        knightOffsets = StepTable.KNIGHT.getOffsets(boardSize);
+    }
+
+    /**
+     * Method for getting the code of the piece type.
+     *
+     * @param type the type of the piece
+     * @return the code of the type, stored in the lower bits of the square code
+     */
+    static int typeCode(PieceType type) {
+        return type.ordinal() + 1;
+    }
+
+    /**
+     * Method for encoding the piece into the square code.
+     *
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     * @return the square code
+     */
+    static byte encode(PieceType type, PieceColor color) {
+        int code = typeCode(type);
+        if (color == PieceColor.BLACK) {
+            code |= BLACK_BIT;
+        }
+        return (byte) code;
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Method for getting the index of the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the index of the square in the grid
+     */
+    public int index(int x, int y) {
+        return (y - 1) * size + (x - 1);
+    }
+
+    /**
+     * Method for getting the x coordinate of the square by its index.
+     *
+     * @param square the index of the square in the grid
+     * @return the x coordinate of the square
+     */
+    public int getX(int square) {
+        return square % size + 1;
+    }
+
+    /**
+     * Method for getting the y coordinate of the square by its index.
+     *
+     * @param square the index of the square in the grid
+     * @return the y coordinate of the square
+     */
+    public int getY(int square) {
+        return square / size + 1;
+    }
+
+    /**
+     * Method for putting the piece on the square.
+     *
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param type  the type of the piece
+     * @param color the color of the piece
+     */
+    public void put(int x, int y, PieceType type, PieceColor color) {
+        write(index(x, y), encode(type, color));
+    }
+
+    /**
+     * Method for removing the piece from the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     */
+    public void remove(int x, int y) {
+        write(index(x, y), EMPTY);
+    }
+
+    /**
+     * Method for changing the size of the empty grid.
+     * The squares are reallocated only if the new board does not fit into them.
+     *
+     * @param boardSize the new size of the board
+     */
+    public void resize(int boardSize) {
+        size = boardSize;
+        if (getCapacity() < boardSize * boardSize) {
+            allocate(boardSize * boardSize);
+        }
+        kingOffsets = StepTable.KING.getOffsets(boardSize);
+        knightOffsets = StepTable.KNIGHT.getOffsets(boardSize);
+    }
+
+    /**
+     * Method for getting the index offsets of the king steps.
+     *
+     * @return the offsets in the order of the steps of the king table
+     */
+    public int[] getKingOffsets() {
+        return kingOffsets;
+    }
+
+    /**
+     * Method for getting the index offsets of the knight jumps.
+     *
+     * @return the offsets in the order of the steps of the knight table
+     */
+    public int[] getKnightOffsets() {
+        return knightOffsets;
+    }
+
+    /**
+     * Method for allocating the empty squares.
+     *
+     * @param count the number of squares
+     */
+    void allocate(int count) {
+        squares = new byte[count];
+    }
+
+    /**
+     * Method for getting the number of the allocated squares.
+     *
+     * @return the number of squares
+     */
+    int getCapacity() {
+        return squares.length;
+    }
+
+    /**
+     * Method for reading the code of the square.
+     *
+     * @param square the index of the square
+     * @return the code of the square
+     */
+    byte read(int square) {
+        return squares[square];
+    }
+
+    /**
+     * Method for writing the code of the square.
+     *
+     * @param square the index of the square
+     * @param code   the new code of the square
+     */
+    void write(int square, byte code) {
+        squares[square] = code;
+    }
+
+    /**
+     * Method for getting the code of the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the code of the square
+     */
+    public byte getCode(int x, int y) {
+        return read(index(x, y));
+    }
+
+    /**
+     * Method for checking whether the square is occupied.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return true if there is a piece on the square
+     */
+    public boolean isOccupied(int x, int y) {
+        return read(index(x, y)) != EMPTY;
+    }
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color of the piece or null if the square is empty
+     */
+    public PieceColor getColor(int x, int y) {
+        byte code = read(index(x, y));
+        if (code == EMPTY) {
+            return null;
+        }
+        return (code & BLACK_BIT) == 0 ? PieceColor.WHITE : PieceColor.BLACK;
+    }
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray by walking its squares.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    @Override
+    public int getBlockerDistance(int x, int y, int dx, int dy) {
+        int square = index(x, y);
+        int step = dy * size + dx;
+        int steps = getEdgeDistance(x, y, dx, dy);
+        for (int distance = 1; distance <= steps; distance++) {
+            square += step;
+            if (read(square) != EMPTY) {
+                return distance;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Method for getting the type of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the type of the piece or null if the square is empty
+     */
+    public PieceType getType(int x, int y) {
+        byte code = read(index(x, y));
+        if (code == EMPTY) {
+            return null;
+        }
+        return TYPES[(code & TYPE_MASK) - 1];
+    }
+}
+
+/**
+ * Class for the occupancy grid keeping its squares in a direct buffer outside of the heap,
+ * so the heap and the garbage collector do not depend on the size of the board.
+ */
+class OffHeapSquareGrid extends SquareGrid {
+    /**
+     * codes of the squares.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor for the off-heap grid.
+     *
+     * @param boardSize the size of the board
+     */
+    OffHeapSquareGrid(int boardSize) {
+        super(boardSize);
+    }
+
+    /**
+     * Method for allocating the empty squares in a direct buffer.
+     *
+     * @param count the number of squares
+     */
+    @Override
+    void allocate(int count) {
+        buffer = ByteBuffer.allocateDirect(count);
+    }
+
+    /**
+     * Method for getting the number of the allocated squares.
+     *
+     * @return the number of squares
+     */
+    @Override
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Method for reading the code of the square.
+     *
+     * @param square the index of the square
+     * @return the code of the square
+     */
+    @Override
+    byte read(int square) {
+        return buffer.get(square);
+    }
+
+    /**
+     * Method for writing the code of the square.
+     *
+     * @param square the index of the square
+     * @param code   the new code of the square
+     */
+    @Override
+    void write(int square, byte code) {
+        buffer.put(square, code);
+    }
+}
+
+/**
+ * Class for the occupancy grid keeping only the occupied squares in a hash table,
+ * so its memory depends on the number of pieces instead of the size of the board.
+ */
+class SparseSquareGrid extends SquareGrid {
+    /**
+     * codes of the occupied squares.
+     */
+    private SparseWords squares;
+
+    /**
+     * Constructor for the sparse grid.
+     *
+     * @param boardSize the size of the board
+     */
+    SparseSquareGrid(int boardSize) {
+        super(boardSize);
+    }
+
+    /**
+     * Method for allocating the empty table of the squares, it grows with the pieces.
+     *
+     * @param count the number of squares
+     */
+    @Override
+    void allocate(int count) {
+        squares = new SparseWords();
+    }
+
+    /**
+     * Method for getting the number of the squares the grid can hold, any board fits.
+     *
+     * @return the largest number of squares
+     */
+    @Override
+    int getCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method for reading the code of the square.
+     *
+     * @param square the index of the square
+     * @return the code of the square
+     */
+    @Override
+    byte read(int square) {
+        return (byte) squares.get(square);
+    }
+
+    /**
+     * Method for writing the code of the square.
+     *
+     * @param square the index of the square
+     * @param code   the new code of the square
+     */
+    @Override
+    void write(int square, byte code) {
+        squares.put(square, code);
+    }
+}
+
+/**
+ * Class for the open addressing hash table of the nonzero words by their indices.
+ * It stores the sparse grid and bitboard, where almost all words are zero,
+ * a missing index reads as zero and writing zero removes the index.
+ */
+class SparseWords {
+    /**
+     * initial number of the slots, a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * multiplier spreading the keys over the slots, the golden ratio of 2^32.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    /**
+     * number of bits in a key.
+     */
+    private static final int KEY_BITS = 32;
+    /**
+     * index plus one stored in every slot, 0 for the free slots.
+     */
+    private int[] keys = new int[INITIAL_CAPACITY];
+    /**
+     * word stored in every slot.
+     */
+    private long[] values = new long[INITIAL_CAPACITY];
+    /**
+     * shift of the hash leaving the bits of the slot.
+     */
+    private int shift = KEY_BITS - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+    /**
+     * number of the stored words.
+     */
+    private int count;
+
+    /**
+     * Method for reading the word.
+     *
+     * @param index the index of the word
+     * @return the word or 0 if it is not stored
+     */
+    public long get(int index) {
+        int key = index + 1;
+        int mask = keys.length - 1;
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            int found = keys[slot];
+            if (found == key) {
+                return values[slot];
+            }
+            if (found == 0) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Method for writing the word.
+     *
+     * @param index the index of the word
+     * @param word  the new word, 0 removes the index
+     */
+    public void put(int index, long word) {
+        int key = index + 1;
+        int mask = keys.length - 1;
+        int slot = slot(key);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == key) {
+            if (word == 0) {
+                remove(slot);
+            } else {
+                values[slot] = word;
+            }
+            return;
+        }
+        if (word == 0) {
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = word;
+        count++;
+        if (2 * count > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Method for getting the slot where the search for the key starts.
+     *
+     * @param key the key
+     * @return the first slot of the key
+     */
+    private int slot(int key) {
+        return (key * HASH_MULTIPLIER) >>> shift;
+    }
+
+    /**
+     * Method for freeing the slot, the following words of the cluster are shifted back
+     * so every word stays reachable from its first slot.
+     *
+     * @param removed the slot to free
+     */
+    private void remove(int removed) {
+        int mask = keys.length - 1;
+        int free = removed;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        values[free] = 0;
+        count--;
+    }
+
+    /**
+     * Method for doubling the number of the slots.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        shift--;
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i] - 1, oldValues[i]);
+            }
+        }
+    }
+}
+
+/**
+ * Interface for the occupancy structures answering the slider ray queries.
+ *
+ * @see BitBoard
+ * @see BlockerIndex
+ */
+interface RayIndex {
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    int getSize();
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color of the piece or null if the square is empty
+     */
+    PieceColor getColor(int x, int y);
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    int getBlockerDistance(int x, int y, int dx, int dy);
+
+    /**
+     * Method for counting the possible moves along one ray.
+     *
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param dx    the step of the ray by x
+     * @param dy    the step of the ray by y
+     * @param color the color of the piece
+     * @return the number of possible moves along the ray
+     */
+    default int getRayMovesCount(int x, int y, int dx, int dy, PieceColor color) {
+        int distance = getBlockerDistance(x, y, dx, dy);
+        if (distance == 0) {
+            return getEdgeDistance(x, y, dx, dy);
+        }
+        if (getColor(x + distance * dx, y + distance * dy) != color) {
+            return distance;
+        }
+        return distance - 1;
+    }
+
+    /**
+     * Method for counting the possible captures along one ray.
+     *
+     * @param x     the x coordinate of the piece
+     * @param y     the y coordinate of the piece
+     * @param dx    the step of the ray by x
+     * @param dy    the step of the ray by y
+     * @param color the color of the piece
+     * @return 1 if the first piece on the ray is an enemy, otherwise 0
+     */
+    default int getRayCapturesCount(int x, int y, int dx, int dy, PieceColor color) {
+        int distance = getBlockerDistance(x, y, dx, dy);
+        if (distance != 0 && getColor(x + distance * dx, y + distance * dy) != color) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Method for getting the number of squares between the square and the edge along the ray.
+     *
+     * @param x  the x coordinate of the square
+     * @param y  the y coordinate of the square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of squares to the edge
+     */
+    default int getEdgeDistance(int x, int y, int dx, int dy) {
+        int size = getSize();
+        int distance = size;
+        if (dx > 0) {
+            distance = Math.min(distance, size - x);
+        } else if (dx < 0) {
+            distance = Math.min(distance, x - 1);
+        }
+        if (dy > 0) {
+            distance = Math.min(distance, size - y);
+        } else if (dy < 0) {
+            distance = Math.min(distance, y - 1);
+        }
+        return distance;
+    }
+}
+
+/**
+ * Class for the lazy cache of the line occupants answering the slider ray queries.
+ * The occupants of a rank, a file or a diagonal are listed once, on the first query along the line,
+ * and kept as the sorted coordinates along the line, so every slider on the line gets its ray lengths
+ * from the differences with its neighbours instead of walking the empty squares again.
+ * Only the lines queried by the sliders are ever listed, a change of a square drops its four lines.
+ */
+class LineCache implements RayIndex {
+    /**
+     * number of the orientations of the lines: ranks, files, diagonals and anti-diagonals.
+     */
+    private static final int ORIENTATIONS = 4;
+    /**
+     * orientation of the ranks.
+     */
+    static final int RANK = 0;
+    /**
+     * orientation of the files.
+     */
+    static final int FILE = 1;
+    /**
+     * orientation of the diagonals going up to the right, indexed by x - y + n - 1.
+     */
+    static final int DIAGONAL = 2;
+    /**
+     * orientation of the anti-diagonals going down to the right, indexed by x + y - 2.
+     */
+    static final int ANTI_DIAGONAL = 3;
+    /**
+     * occupancy grid of the board.
+     */
+    private final SquareGrid grid;
+    /**
+     * bitboard listing the occupants of a line.
+     */
+    private final BitBoard source;
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * sorted coordinates of the occupants by the orientation and the index of the line, null if not listed.
+     */
+    private final int[][][] lines;
+
+    /**
+     * Constructor for the line cache.
+     *
+     * @param squareGrid the occupancy grid of the board
+     * @param bitBoard   the bitboard listing the occupants of a line
+     */
+    LineCache(SquareGrid squareGrid, BitBoard bitBoard) {
+        grid = squareGrid;
+        source = bitBoard;
+        size = squareGrid.getSize();
+        lines = new int[ORIENTATIONS][][];
+        lines[RANK] = new int[size][];
+        lines[FILE] = new int[size][];
+        lines[DIAGONAL] = new int[2 * size - 1][];
+        lines[ANTI_DIAGONAL] = new int[2 * size - 1][];
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color of the piece or null if the square is empty
+     */
+    @Override
+    public PieceColor getColor(int x, int y) {
+        return grid.getColor(x, y);
+    }
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray from the neighbours on the line.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    @Override
+    public int getBlockerDistance(int x, int y, int dx, int dy) {
+        int[] line;
+        int coordinate;
+        int step;
+        if (dy == 0) {
+            line = getLine(RANK, y - 1);
+            coordinate = x;
+            step = dx;
+        } else if (dx == 0) {
+            line = getLine(FILE, x - 1);
+            coordinate = y;
+            step = dy;
+        } else if (dx == dy) {
+            line = getLine(DIAGONAL, x - y + size - 1);
+            coordinate = x;
+            step = dx;
+        } else {
+            line = getLine(ANTI_DIAGONAL, x + y - 2);
+            coordinate = x;
+            step = dx;
+        }
+        int found = Arrays.binarySearch(line, 1, line[0] + 1, coordinate);
+        int next;
+        int previous;
+        if (found > 0) {
+            next = found + 1;
+            previous = found - 1;
+        } else {
+            next = -found - 1;
+            previous = next - 1;
+        }
+        if (step > 0) {
+            return next <= line[0] ? line[next] - coordinate : 0;
+        }
+        return previous >= 1 ? coordinate - line[previous] : 0;
+    }
+
+    /**
+     * Method for listing the lines of all sliders, so the later queries only read the cache.
+     * It is used before the parallel evaluation, which must not list the lines concurrently.
+     *
+     * @param pieces the pieces of the board
+     */
+    public void listSliderLines(PieceStore pieces) {
+        for (int i = 0; i < pieces.size(); i++) {
+            if (!pieces.isSlider(i)) {
+                continue;
+            }
+            int x = pieces.getX(i);
+            int y = pieces.getY(i);
+            PieceType type = pieces.getType(i);
+            if (type != PieceType.BISHOP) {
+                getBlockerDistance(x, y, 1, 0);
+                getBlockerDistance(x, y, 0, 1);
+            }
+            if (type != PieceType.ROOK) {
+                getBlockerDistance(x, y, 1, 1);
+                getBlockerDistance(x, y, 1, -1);
+            }
+        }
+    }
+
+    /**
+     * Method for dropping the lines of the changed square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     */
+    public void invalidate(int x, int y) {
+        lines[RANK][y - 1] = null;
+        lines[FILE][x - 1] = null;
+        lines[DIAGONAL][x - y + size - 1] = null;
+        lines[ANTI_DIAGONAL][x + y - 2] = null;
+    }
+
+    /**
+     * Method for getting the occupants of the line, listing them on the first query.
+     *
+     * @param orientation the orientation of the line
+     * @param index       the index of the line in its orientation
+     * @return the number of the occupants followed by their sorted coordinates along the line
+     */
+    private int[] getLine(int orientation, int index) {
+        int[] line = lines[orientation][index];
+        if (line == null) {
+            line = source.listLine(orientation, index);
+            lines[orientation][index] = line;
+        }
+        return line;
+    }
+}
+
+/**
+ * Class for the bitboard occupancy of the board.
+ * Every rank, file, diagonal and anti-diagonal is kept as a bitset of longs
+ * separately for the white and the black pieces, so the nearest piece along
+ * a ray is found by scanning whole words instead of single squares.
+ * All bitsets are parts of one storage of words, which subclasses may keep off the heap.
+ */
+class BitBoard implements RayIndex {
+    /**
+     * shift converting a bit position into a word position.
+     */
+    private static final int WORD_SHIFT = 6;
+    /**
+     * mask of the bit position inside a word.
+     */
+    private static final int BIT_MASK = 63;
+    /**
+     * size of the board.
+     */
+    private int size;
+    /**
+     * number of words in one line.
+     */
+    private int words;
+    /**
+     * words of all bitsets.
+     */
+    private long[] masks;
+    /**
+     * offset of the white pieces by ranks, the bit of the square is x - 1 in the words.
+     */
+    private int whiteRanks;
+    /**
+     * offset of the black pieces by ranks, the bit of the square is x - 1 in the words.
+     */
+    private int blackRanks;
+    /**
+     * offset of the white pieces by files, the bit of the square is y - 1 in the words.
+     */
+    private int whiteFiles;
+    /**
+     * offset of the black pieces by files, the bit of the square is y - 1 in the words.
+     */
+    private int blackFiles;
+    /**
+     * offset of the white pieces by diagonals x - y, the bit of the square is x - 1 in the words.
+     */
+    private int whiteDiagonals;
+    /**
+     * offset of the black pieces by diagonals x - y, the bit of the square is x - 1 in the words.
+     */
+    private int blackDiagonals;
+    /**
+     * offset of the white pieces by anti-diagonals x + y, the bit of the square is x - 1 in the words.
+     */
+    private int whiteAntiDiagonals;
+    /**
+     * offset of the black pieces by anti-diagonals x + y, the bit of the square is x - 1 in the words.
+     */
+    private int blackAntiDiagonals;
+
+    /**
+     * Constructor for the bitboard.
+     *
+     * @param boardSize the size of the board
+     */
+    BitBoard(int boardSize) {
+        allocate(boardSize);
+    }
+
+    /**
+     * Method for allocating the bitsets for the board size.
+     *
+     * @param boardSize the size of the board
+     */
+    private void allocate(int boardSize) {
+        allocateWords(getWordsCount(boardSize));
+        layOut(boardSize);
+    }
+
+    /**
+     * Method for getting the number of words of all bitsets of the board.
+     *
+     * @param boardSize the size of the board
+     * @return the number of words
+     */
+    static int getWordsCount(int boardSize) {
+        int lineWords = (boardSize + BIT_MASK) >>> WORD_SHIFT;
+        return 4 * boardSize * lineWords + 4 * (2 * boardSize - 1) * lineWords;
+    }
+
+    /**
+     * Method for placing the bitsets of the board size one after another in the words.
+     *
+     * @param boardSize the size of the board
+     */
+    private void layOut(int boardSize) {
+        size = boardSize;
+        words = (boardSize + BIT_MASK) >>> WORD_SHIFT;
+        int lines = boardSize * words;
+        int diagonals = (2 * boardSize - 1) * words;
+        whiteRanks = 0;
+        blackRanks = lines;
+        whiteFiles = 2 * lines;
+        blackFiles = 3 * lines;
+        whiteDiagonals = 4 * lines;
+        blackDiagonals = 4 * lines + diagonals;
+        whiteAntiDiagonals = 4 * lines + 2 * diagonals;
+        blackAntiDiagonals = 4 * lines + 3 * diagonals;
+    }
+
+    /**
+     * Method for allocating the zeroed words of the bitsets.
+     *
+     * @param count the number of words
+     */
+    void allocateWords(int count) {
+        masks = new long[count];
+    }
+
+    /**
+     * Method for getting the number of the allocated words.
+     *
+     * @return the number of words
+     */
+    int getCapacity() {
+        return masks.length;
+    }
+
+    /**
+     * Method for reading a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @return the word
+     */
+    long getWord(int index) {
+        return masks[index];
+    }
+
+    /**
+     * Method for writing a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @param word  the new word
+     */
+    void setWord(int index, long word) {
+        masks[index] = word;
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Method for putting the piece on the square.
+     *
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the piece
+     */
+    public void set(int x, int y, PieceColor color) {
+        boolean white = color == PieceColor.WHITE;
+        setBit(white ? whiteRanks : blackRanks, y - 1, x - 1);
+        setBit(white ? whiteFiles : blackFiles, x - 1, y - 1);
+        setBit(white ? whiteDiagonals : blackDiagonals, x - y + size - 1, x - 1);
+        setBit(white ? whiteAntiDiagonals : blackAntiDiagonals, x + y - 2, x - 1);
+    }
+
+    /**
+     * Method for removing the piece from the square.
+     *
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the piece
+     */
+    public void remove(int x, int y, PieceColor color) {
+        boolean white = color == PieceColor.WHITE;
+        clearBit(white ? whiteRanks : blackRanks, y - 1, x - 1);
+        clearBit(white ? whiteFiles : blackFiles, x - 1, y - 1);
+        clearBit(white ? whiteDiagonals : blackDiagonals, x - y + size - 1, x - 1);
+        clearBit(white ? whiteAntiDiagonals : blackAntiDiagonals, x + y - 2, x - 1);
+    }
+
+    /**
+     * Method for changing the size of the empty bitboard.
+     * The bitsets are reallocated only if the new board does not fit into them.
+     *
+     * @param boardSize the new size of the board
+     */
+    public void resize(int boardSize) {
+        if (getCapacity() < getWordsCount(boardSize)) {
+            allocate(boardSize);
+            return;
+        }
+        layOut(boardSize);
+    }
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color of the piece or null if the square is empty
+     */
+    @Override
+    public PieceColor getColor(int x, int y) {
+        if (testBit(whiteRanks, y - 1, x - 1)) {
+            return PieceColor.WHITE;
+        }
+        if (testBit(blackRanks, y - 1, x - 1)) {
+            return PieceColor.BLACK;
+        }
+        return null;
+    }
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    @Override
+    public int getBlockerDistance(int x, int y, int dx, int dy) {
+        int white;
+        int black;
+        int line;
+        int bit;
+        int step;
+        if (dy == 0) {
+            white = whiteRanks;
+            black = blackRanks;
+            line = y - 1;
+            bit = x - 1;
+            step = dx;
+        } else if (dx == 0) {
+            white = whiteFiles;
+            black = blackFiles;
+            line = x - 1;
+            bit = y - 1;
+            step = dy;
+        } else if (dx == dy) {
+            white = whiteDiagonals;
+            black = blackDiagonals;
+            line = x - y + size - 1;
+            bit = x - 1;
+            step = dx;
+        } else {
+            white = whiteAntiDiagonals;
+            black = blackAntiDiagonals;
+            line = x + y - 2;
+            bit = x - 1;
+            step = dx;
+        }
+        if (step > 0) {
+            int found = nextBit(white, black, line, bit + 1);
+            return found < 0 ? 0 : found - bit;
+        }
+        int found = previousBit(white, black, line, bit - 1);
+        return found < 0 ? 0 : bit - found;
+    }
+
+    /**
+     * Method for listing the occupants of one line.
+     *
+     * @param orientation the orientation of the line, see {@link LineCache}
+     * @param line        the index of the line in its orientation
+     * @return the number of the occupants followed by their sorted coordinates along the line
+     */
+    public int[] listLine(int orientation, int line) {
+        int white;
+        int black;
+        switch (orientation) {
+            case LineCache.RANK:
+                white = whiteRanks;
+                black = blackRanks;
+                break;
+            case LineCache.FILE:
+                white = whiteFiles;
+                black = blackFiles;
+                break;
+            case LineCache.DIAGONAL:
+                white = whiteDiagonals;
+                black = blackDiagonals;
+                break;
+            default:
+                white = whiteAntiDiagonals;
+                black = blackAntiDiagonals;
+                break;
+        }
+        int base = line * words;
+        int count = 0;
+        for (int word = 0; word < words; word++) {
+            count += Long.bitCount(getWord(white + base + word) | getWord(black + base + word));
+        }
+        int[] occupants = new int[count + 1];
+        occupants[0] = count;
+        int next = 1;
+        for (int word = 0; word < words; word++) {
+            long bits = getWord(white + base + word) | getWord(black + base + word);
+            while (bits != 0) {
+                occupants[next++] = (word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits) + 1;
+                bits &= bits - 1;
+            }
+        }
+        return occupants;
+    }
+
+    /**
+     * Method for finding the lowest occupied bit of the line starting from the given bit.
+     *
+     * @param white the offset of the white bitsets
+     * @param black the offset of the black bitsets
+     * @param line  the index of the line
+     * @param from  the first bit to check
+     * @return the found bit or -1 if there is none
+     */
+    private int nextBit(int white, int black, int line, int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int base = line * words;
+        int word = from >>> WORD_SHIFT;
+        long bits = (getWord(white + base + word) | getWord(black + base + word)) & (-1L << (from & BIT_MASK));
+        while (bits == 0) {
+            word++;
+            if (word == words) {
+                return -1;
+            }
+            bits = getWord(white + base + word) | getWord(black + base + word);
+        }
+        return (word << WORD_SHIFT) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Method for finding the highest occupied bit of the line starting from the given bit.
+     *
+     * @param white the offset of the white bitsets
+     * @param black the offset of the black bitsets
+     * @param line  the index of the line
+     * @param from  the first bit to check
+     * @return the found bit or -1 if there is none
+     */
+    private int previousBit(int white, int black, int line, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int base = line * words;
+        int word = from >>> WORD_SHIFT;
+        long bits = (getWord(white + base + word) | getWord(black + base + word))
+                & (-1L >>> (BIT_MASK - (from & BIT_MASK)));
+        while (bits == 0) {
+            word--;
+            if (word < 0) {
+                return -1;
+            }
+            bits = getWord(white + base + word) | getWord(black + base + word);
+        }
+        return (word << WORD_SHIFT) + BIT_MASK - Long.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * Method for setting the bit of the line.
+     *
+     * @param bits the offset of the bitsets
+     * @param line the index of the line
+     * @param bit  the bit to set
+     */
+    private void setBit(int bits, int line, int bit) {
+        int index = bits + line * words + (bit >>> WORD_SHIFT);
+        setWord(index, getWord(index) | 1L << (bit & BIT_MASK));
+    }
+
+    /**
+     * Method for clearing the bit of the line.
+     *
+     * @param bits the offset of the bitsets
+     * @param line the index of the line
+     * @param bit  the bit to clear
+     */
+    private void clearBit(int bits, int line, int bit) {
+        int index = bits + line * words + (bit >>> WORD_SHIFT);
+        setWord(index, getWord(index) & ~(1L << (bit & BIT_MASK)));
+    }
+
+    /**
+     * Method for checking the bit of the line.
+     *
+     * @param bits the offset of the bitsets
+     * @param line the index of the line
+     * @param bit  the bit to check
+     * @return true if the bit is set
+     */
+    private boolean testBit(int bits, int line, int bit) {
+        return (getWord(bits + line * words + (bit >>> WORD_SHIFT)) & (1L << (bit & BIT_MASK))) != 0;
+    }
+}
+
+/**
+ * Class for the bitboard keeping its words in a direct buffer outside of the heap.
+ */
+class OffHeapBitBoard extends BitBoard {
+    /**
+     * number of bytes in one word.
+     */
+    private static final int WORD_BYTES = Long.BYTES;
+    /**
+     * words of all bitsets.
+     */
+    private LongBuffer buffer;
+
+    /**
+     * Constructor for the off-heap bitboard.
+     *
+     * @param boardSize the size of the board
+     */
+    OffHeapBitBoard(int boardSize) {
+        super(boardSize);
+    }
+
+    /**
+     * Method for allocating the zeroed words of the bitsets in a direct buffer.
+     *
+     * @param count the number of words
+     */
+    @Override
+    void allocateWords(int count) {
+        buffer = ByteBuffer.allocateDirect(count * WORD_BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * Method for getting the number of the allocated words.
+     *
+     * @return the number of words
+     */
+    @Override
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Method for reading a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @return the word
+     */
+    @Override
+    long getWord(int index) {
+        return buffer.get(index);
+    }
+
+    /**
+     * Method for writing a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @param word  the new word
+     */
+    @Override
+    void setWord(int index, long word) {
+        buffer.put(index, word);
+    }
+}
+
+/**
+ * Class for the bitboard keeping only the nonzero words in a hash table.
+ * The empty words between the pieces are read as zeros without being stored.
+ */
+class SparseBitBoard extends BitBoard {
+    /**
+     * nonzero words of all bitsets.
+     */
+    private SparseWords words;
+
+    /**
+     * Constructor for the sparse bitboard.
+     *
+     * @param boardSize the size of the board
+     */
+    SparseBitBoard(int boardSize) {
+        super(boardSize);
+    }
+
+    /**
+     * Method for allocating the empty table of the words, it grows with the pieces.
+     *
+     * @param count the number of words
+     */
+    @Override
+    void allocateWords(int count) {
+        words = new SparseWords();
+    }
+
+    /**
+     * Method for getting the number of the words the bitboard can hold, any board fits.
+     *
+     * @return the largest number of words
+     */
+    @Override
+    int getCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method for reading a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @return the word
+     */
+    @Override
+    long getWord(int index) {
+        return words.get(index);
+    }
+
+    /**
+     * Method for writing a word of the bitsets.
+     *
+     * @param index the index of the word
+     * @param word  the new word
+     */
+    @Override
+    void setWord(int index, long word) {
+        words.put(index, word);
+    }
+}
+
+/**
+ * Class for the blocker index of the board.
+ * The coordinates of the pieces are kept sorted per rank, per file, per diagonal
+ * and per anti-diagonal, so the nearest piece along a ray is found by a binary search.
+ */
+class BlockerIndex implements RayIndex {
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * occupancy grid used for the colors of the pieces.
+     */
+    private final SquareGrid grid;
+    /**
+     * code of the rook type.
+     */
+    private static final int ROOK = SquareGrid.typeCode(PieceType.ROOK);
+    /**
+     * code of the bishop type.
+     */
+    private static final int BISHOP = SquareGrid.typeCode(PieceType.BISHOP);
+    /**
+     * code of the queen type.
+     */
+    private static final int QUEEN = SquareGrid.typeCode(PieceType.QUEEN);
+    /**
+     * x coordinates of the pieces.
+     */
+    private final int[] pieceXs;
+    /**
+     * y coordinates of the pieces.
+     */
+    private final int[] pieceYs;
+    /**
+     * square codes of the pieces.
+     */
+    private final byte[] pieceCodes;
+    /**
+     * start of every rank in the rank coordinates.
+     */
+    private final int[] rankStarts;
+    /**
+     * sorted x coordinates of the pieces by ranks.
+     */
+    private final int[] rankCoordinates;
+    /**
+     * pieces by ranks in the order of the coordinates.
+     */
+    private final int[] rankPieces;
+    /**
+     * start of every file in the file coordinates.
+     */
+    private final int[] fileStarts;
+    /**
+     * sorted y coordinates of the pieces by files.
+     */
+    private final int[] fileCoordinates;
+    /**
+     * pieces by files in the order of the coordinates.
+     */
+    private final int[] filePieces;
+    /**
+     * start of every diagonal x - y in the diagonal coordinates.
+     */
+    private final int[] diagonalStarts;
+    /**
+     * sorted x coordinates of the pieces by diagonals.
+     */
+    private final int[] diagonalCoordinates;
+    /**
+     * pieces by diagonals in the order of the coordinates.
+     */
+    private final int[] diagonalPieces;
+    /**
+     * start of every anti-diagonal x + y in the anti-diagonal coordinates.
+     */
+    private final int[] antiDiagonalStarts;
+    /**
+     * sorted x coordinates of the pieces by anti-diagonals.
+     */
+    private final int[] antiDiagonalCoordinates;
+    /**
+     * pieces by anti-diagonals in the order of the coordinates.
+     */
+    private final int[] antiDiagonalPieces;
+
+    /**
+     * Constructor for the blocker index.
+     *
+     * @param occupancy the occupancy grid of the board
+     * @param pieces    the pieces of the board
+     */
+    BlockerIndex(SquareGrid occupancy, PieceStore pieces) {
+        size = occupancy.getSize();
+        grid = occupancy;
+        int count = pieces.size();
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        pieceCodes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            if (pieces.isRemoved(i)) {
+                continue;
+            }
+            xs[i] = pieces.getX(i);
+            ys[i] = pieces.getY(i);
+            pieceCodes[i] = SquareGrid.encode(pieces.getType(i), pieces.getColor(i));
+        }
+        pieceXs = xs;
+        pieceYs = ys;
+        int[] byX = sortByCoordinate(xs);
+        int[] byY = sortByCoordinate(ys);
+        int diagonalsCount = 2 * size - 1;
+        int[] lines = new int[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = ys[i] - 1;
+        }
+        rankStarts = new int[size + 1];
+        rankCoordinates = new int[count];
+        rankPieces = new int[count];
+        fillLines(byX, lines, xs, rankStarts, rankCoordinates, rankPieces);
+        for (int i = 0; i < count; i++) {
+            lines[i] = xs[i] - 1;
+        }
+        fileStarts = new int[size + 1];
+        fileCoordinates = new int[count];
+        filePieces = new int[count];
+        fillLines(byY, lines, ys, fileStarts, fileCoordinates, filePieces);
+        for (int i = 0; i < count; i++) {
+            lines[i] = xs[i] - ys[i] + size - 1;
+        }
+        diagonalStarts = new int[diagonalsCount + 1];
+        diagonalCoordinates = new int[count];
+        diagonalPieces = new int[count];
+        fillLines(byX, lines, xs, diagonalStarts, diagonalCoordinates, diagonalPieces);
+        for (int i = 0; i < count; i++) {
+            lines[i] = xs[i] + ys[i] - 2;
+        }
+        antiDiagonalStarts = new int[diagonalsCount + 1];
+        antiDiagonalCoordinates = new int[count];
+        antiDiagonalPieces = new int[count];
+        fillLines(byX, lines, xs, antiDiagonalStarts, antiDiagonalCoordinates, antiDiagonalPieces);
+    }
+
+    /**
+     * Method for ordering the pieces by the coordinate with the counting sort.
+     * The removed pieces have the coordinate 0 and are left out.
+     *
+     * @param coordinates the coordinates of the pieces
+     * @return the indices of the present pieces in the order of the coordinate
+     */
+    private int[] sortByCoordinate(int[] coordinates) {
+        int[] starts = new int[size + 2];
+        for (int coordinate : coordinates) {
+            starts[coordinate + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int removed = starts[1];
+        int[] order = new int[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            order[starts[coordinates[i]]++] = i;
+        }
+        return removed == 0 ? order : Arrays.copyOfRange(order, removed, order.length);
+    }
+
+    /**
+     * Method for distributing the coordinates of the pieces by lines.
+     * The pieces are taken in the order of the coordinate, so every line stays sorted.
+     *
+     * @param order       the indices of the pieces in the order of the coordinate
+     * @param lines       the line of every piece
+     * @param coordinates the coordinate of every piece
+     * @param starts      the starts of the lines to fill
+     * @param sorted      the sorted coordinates to fill
+     * @param sortedOrder the pieces of the sorted coordinates to fill
+     */
+    private static void fillLines(int[] order, int[] lines, int[] coordinates, int[] starts, int[] sorted,
+                                  int[] sortedOrder) {
+        for (int piece : order) {
+            starts[lines[piece] + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int piece : order) {
+            int slot = next[lines[piece]]++;
+            sorted[slot] = coordinates[piece];
+            sortedOrder[slot] = piece;
+        }
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color of the piece or null if the square is empty
+     */
+    @Override
+    public PieceColor getColor(int x, int y) {
+        return grid.getColor(x, y);
+    }
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    @Override
+    public int getBlockerDistance(int x, int y, int dx, int dy) {
+        int[] starts;
+        int[] coordinates;
+        int line;
+        int coordinate;
+        int step;
+        if (dy == 0) {
+            starts = rankStarts;
+            coordinates = rankCoordinates;
+            line = y - 1;
+            coordinate = x;
+            step = dx;
+        } else if (dx == 0) {
+            starts = fileStarts;
+            coordinates = fileCoordinates;
+            line = x - 1;
+            coordinate = y;
+            step = dy;
+        } else if (dx == dy) {
+            starts = diagonalStarts;
+            coordinates = diagonalCoordinates;
+            line = x - y + size - 1;
+            coordinate = x;
+            step = dx;
+        } else {
+            starts = antiDiagonalStarts;
+            coordinates = antiDiagonalCoordinates;
+            line = x + y - 2;
+            coordinate = x;
+            step = dx;
+        }
+        int from = starts[line];
+        int to = starts[line + 1];
+        int found = Arrays.binarySearch(coordinates, from, to, coordinate);
+        int next = found >= 0 ? found + 1 : -found - 1;
+        int previous = found >= 0 ? found - 1 : next - 1;
+        if (step > 0) {
+            return next < to ? coordinates[next] - coordinate : 0;
+        }
+        return previous >= from ? coordinate - coordinates[previous] : 0;
+    }
+
+    /**
+     * Method for finding the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the index of the piece in the order of adding or -1 if the square is empty
+     */
+    public int getPieceAt(int x, int y) {
+        int found = Arrays.binarySearch(rankCoordinates, rankStarts[y - 1], rankStarts[y], x);
+        return found >= 0 ? rankPieces[found] : -1;
+    }
+
+    /**
+     * Method for adding the slider moves and captures of all pieces.
+     * Every line is swept once and every slider on it gets its neighbours on the line at once.
+     *
+     * @param results the moves and captures counts, two values per piece in the order of adding
+     */
+    public void addSliderCounts(int[] results) {
+        sweepLines(rankStarts, rankCoordinates, rankPieces, 1, 0, ROOK, results);
+        sweepLines(fileStarts, fileCoordinates, filePieces, 0, 1, ROOK, results);
+        sweepLines(diagonalStarts, diagonalCoordinates, diagonalPieces, 1, 1, BISHOP, results);
+        sweepLines(antiDiagonalStarts, antiDiagonalCoordinates, antiDiagonalPieces, 1, -1, BISHOP, results);
+    }
+
+    /**
+     * Method for sweeping all lines of one direction.
+     *
+     * @param starts      the starts of the lines
+     * @param coordinates the sorted coordinates of the lines
+     * @param linePieces  the pieces of the sorted coordinates
+     * @param dx          the step by x along the growing coordinate
+     * @param dy          the step by y along the growing coordinate
+     * @param slider      the code of the piece type moving along the lines besides the queen
+     * @param results     the moves and captures counts to add to
+     */
+    private void sweepLines(int[] starts, int[] coordinates, int[] linePieces, int dx, int dy, int slider,
+                            int[] results) {
+        for (int line = 0; line + 1 < starts.length; line++) {
+            int from = starts[line];
+            int to = starts[line + 1];
+            for (int k = from; k < to; k++) {
+                int piece = linePieces[k];
+                int code = pieceCodes[piece];
+                int type = code & SquareGrid.TYPE_MASK;
+                if (type != slider && type != QUEEN) {
+                    continue;
+                }
+                int color = code & SquareGrid.BLACK_BIT;
+                if (k + 1 < to) {
+                    addBlocker(results, piece, coordinates[k + 1] - coordinates[k],
+                            (pieceCodes[linePieces[k + 1]] & SquareGrid.BLACK_BIT) != color);
+                } else {
+                    results[2 * piece] += getEdgeDistance(pieceXs[piece], pieceYs[piece], dx, dy);
+                }
+                if (k > from) {
+                    addBlocker(results, piece, coordinates[k] - coordinates[k - 1],
+                            (pieceCodes[linePieces[k - 1]] & SquareGrid.BLACK_BIT) != color);
+                } else {
+                    results[2 * piece] += getEdgeDistance(pieceXs[piece], pieceYs[piece], -dx, -dy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for adding the squares attacked by the sliders of all lines to the attack map.
+     * Every slider attacks the squares up to the nearest pieces on both sides including them,
+     * the ranges are collected in difference arrays and summed up in one pass along the line.
+     *
+     * @param attackMap the attack map to add to
+     */
+    public void addSliderAttacks(AttackMap attackMap) {
+        int[] whiteDifference = new int[size + 2];
+        int[] blackDifference = new int[size + 2];
+        sweepAttacks(rankStarts, rankCoordinates, rankPieces, 1, 0, ROOK, whiteDifference, blackDifference,
+                attackMap);
+        sweepAttacks(fileStarts, fileCoordinates, filePieces, 0, 1, ROOK, whiteDifference, blackDifference,
+                attackMap);
+        sweepAttacks(diagonalStarts, diagonalCoordinates, diagonalPieces, 1, 1, BISHOP, whiteDifference,
+                blackDifference, attackMap);
+        sweepAttacks(antiDiagonalStarts, antiDiagonalCoordinates, antiDiagonalPieces, 1, -1, BISHOP,
+                whiteDifference, blackDifference, attackMap);
+    }
+
+    /**
+     * Method for sweeping the attacks of all lines of one direction.
+     * The lines without sliders are skipped.
+     *
+     * @param starts          the starts of the lines
+     * @param coordinates     the sorted coordinates of the lines
+     * @param linePieces      the pieces of the sorted coordinates
+     * @param dx              the step by x along the growing coordinate
+     * @param dy              the step by y along the growing coordinate
+     * @param slider          the code of the piece type moving along the lines besides the queen
+     * @param whiteDifference the cleared difference array of the white attacks by the coordinate
+     * @param blackDifference the cleared difference array of the black attacks by the coordinate
+     * @param attackMap       the attack map to add to
+     */
+    private void sweepAttacks(int[] starts, int[] coordinates, int[] linePieces, int dx, int dy, int slider,
+                              int[] whiteDifference, int[] blackDifference, AttackMap attackMap) {
+        for (int line = 0; line + 1 < starts.length; line++) {
+            int from = starts[line];
+            int to = starts[line + 1];
+            if (from == to) {
+                continue;
+            }
+            int anchor = linePieces[from];
+            int anchorX = pieceXs[anchor];
+            int anchorY = pieceYs[anchor];
+            int low = coordinates[from] - getEdgeDistance(anchorX, anchorY, -dx, -dy);
+            int high = coordinates[from] + getEdgeDistance(anchorX, anchorY, dx, dy);
+            boolean sliders = false;
+            for (int k = from; k < to; k++) {
+                int code = pieceCodes[linePieces[k]];
+                int type = code & SquareGrid.TYPE_MASK;
+                if (type != slider && type != QUEEN) {
+                    continue;
+                }
+                sliders = true;
+                int[] difference = (code & SquareGrid.BLACK_BIT) == 0 ? whiteDifference : blackDifference;
+                difference[k > from ? coordinates[k - 1] : low]++;
+                difference[coordinates[k]]--;
+                difference[coordinates[k] + 1]++;
+                difference[(k + 1 < to ? coordinates[k + 1] : high) + 1]--;
+            }
+            if (!sliders) {
+                continue;
+            }
+            int whiteCount = 0;
+            int blackCount = 0;
+            int square = (anchorY - 1 + (low - coordinates[from]) * dy) * size + anchorX - 1
+                    + (low - coordinates[from]) * dx;
+            int step = dy * size + dx;
+            for (int coordinate = low; coordinate <= high; coordinate++, square += step) {
+                whiteCount += whiteDifference[coordinate];
+                blackCount += blackDifference[coordinate];
+                whiteDifference[coordinate] = 0;
+                blackDifference[coordinate] = 0;
+                attackMap.add(square, whiteCount, blackCount);
+            }
+            whiteDifference[high + 1] = 0;
+            blackDifference[high + 1] = 0;
+        }
+    }
+
+    /**
+     * Method for adding the moves and captures of one ray ending at a piece.
+     *
+     * @param results  the moves and captures counts to add to
+     * @param piece    the index of the piece
+     * @param distance the distance to the blocking piece
+     * @param enemy    whether the blocking piece is an enemy
+     */
+    private static void addBlocker(int[] results, int piece, int distance, boolean enemy) {
+        if (enemy) {
+            results[2 * piece] += distance;
+            results[2 * piece + 1]++;
+        } else {
+            results[2 * piece] += distance - 1;
+        }
+    }
+}
+
+/**
+ * Class for the lazy iteration over the destination squares of the moves of one piece.
+ * Every piece goes along its directions, the sliders until the first piece or the edge,
+ * the other pieces one step, and the pawn only forward to the empty square or diagonally to the enemy.
+ */
+class MoveIterator implements PrimitiveIterator.OfInt {
+    /**
+     * directions of the rook.
+     */
+    private static final int[][] ROOK_DIRECTIONS = {{1, -1, 0, 0}, {0, 0, 1, -1}};
+    /**
+     * directions of the bishop.
+     */
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1, -1, -1}, {1, -1, 1, -1}};
+    /**
+     * directions of the queen and the king.
+     */
+    private static final int[][] ALL_DIRECTIONS = {Board.DIRECTION_XS, Board.DIRECTION_YS};
+    /**
+     * jumps of the knight.
+     */
+    private static final int[][] KNIGHT_JUMPS = {Board.KNIGHT_XS, Board.KNIGHT_YS};
+    /**
+     * steps of the white pawn, the first one is the move forward.
+     */
+    private static final int[][] WHITE_PAWN_STEPS = {{0, 1, -1}, {1, 1, 1}};
+    /**
+     * steps of the black pawn, the first one is the move forward.
+     */
+    private static final int[][] BLACK_PAWN_STEPS = {{0, 1, -1}, {-1, -1, -1}};
+    /**
+     * occupancy grid of the board.
+     */
+    private SquareGrid grid;
+    /**
+     * x coordinate of the piece.
+     */
+    private int x;
+    /**
+     * y coordinate of the piece.
+     */
+    private int y;
+    /**
+     * color of the piece.
+     */
+    private PieceColor color;
+    /**
+     * steps by x and y of the directions of the piece.
+     */
+    private int[][] steps = ROOK_DIRECTIONS;
+    /**
+     * whether the piece slides along its directions.
+     */
+    private boolean sliding;
+    /**
+     * whether the piece is a pawn.
+     */
+    private boolean pawn;
+    /**
+     * index of the current direction.
+     */
+    private int direction;
+    /**
+     * distance of the last visited square along the current direction.
+     */
+    private int distance;
+    /**
+     * next found destination square or -1 if it is not found yet.
+     */
+    private int next;
+
+    /**
+     * Method for starting the iteration over the moves of the piece.
+     *
+     * @param occupancy the occupancy grid of the board
+     * @param piece     the piece on the board
+     */
+    void reset(SquareGrid occupancy, ChessPiece piece) {
+        grid = occupancy;
+        x = piece.getPosition().getX();
+        y = piece.getPosition().getY();
+        color = piece.getColor();
+        PieceType type = piece.getType();
+        sliding = type == PieceType.QUEEN || type == PieceType.ROOK || type == PieceType.BISHOP;
+        pawn = type == PieceType.PAWN;
+        switch (type) {
+            case ROOK:
+                steps = ROOK_DIRECTIONS;
+                break;
+            case BISHOP:
+                steps = BISHOP_DIRECTIONS;
+                break;
+            case KNIGHT:
+                steps = KNIGHT_JUMPS;
+                break;
+            case PAWN:
+                steps = color == PieceColor.WHITE ? WHITE_PAWN_STEPS : BLACK_PAWN_STEPS;
+                break;
+            default:
+                steps = ALL_DIRECTIONS;
+                break;
+        }
+        direction = 0;
+        distance = 0;
+        next = -1;
+    }
+
+    /**
+     * Method for checking whether there are more moves.
+     *
+     * @return true if there is the next move
+     */
+    @Override
+    public boolean hasNext() {
+        while (next < 0 && direction < steps[0].length) {
+            advance();
+        }
+        return next >= 0;
+    }
+
+    /**
+     * Method for getting the destination square of the next move.
+     *
+     * @return the index of the destination square in the grid
+     */
+    @Override
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int move = next;
+        next = -1;
+        return move;
+    }
+
+    /**
+     * Method for visiting the next square along the current direction.
+     */
+    private void advance() {
+        distance++;
+        int targetX = x + steps[0][direction] * distance;
+        int targetY = y + steps[1][direction] * distance;
+        int size = grid.getSize();
+        if (distance > 1 && !sliding || targetX < 1 || targetX > size || targetY < 1 || targetY > size) {
+            direction++;
+            distance = 0;
+            return;
+        }
+        boolean forward = pawn && direction == 0;
+        if (!grid.isOccupied(targetX, targetY)) {
+            if (!pawn || forward) {
+                next = grid.index(targetX, targetY);
+            }
+            return;
+        }
+        if (!forward && grid.getColor(targetX, targetY) != color) {
+            next = grid.index(targetX, targetY);
+        }
+        if (sliding) {
+            direction++;
+            distance = 0;
+        }
+    }
+}
+
+/**
+ * Class for the numbers of the white and black pieces attacking every square of the board.
+ * A square is attacked by a piece if the piece could capture an enemy piece standing on it,
+ * so the squares of the own pieces covered by the piece are counted as well.
+ */
+class AttackMap {
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * number of the white attackers of every square.
+     */
+    private final short[] whiteAttacks;
+    /**
+     * number of the black attackers of every square.
+     */
+    private final short[] blackAttacks;
+
+    /**
+     * Constructor for the empty attack map.
+     *
+     * @param boardSize the size of the board
+     */
+    AttackMap(int boardSize) {
+        size = boardSize;
+        whiteAttacks = new short[boardSize * boardSize];
+        blackAttacks = new short[boardSize * boardSize];
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
      */
-    private final int size;
+    public int getSize() {
+        return size;
+    }
 
     /**
-     * Constructor for the board.
+     * Method for getting the number of the pieces of the color attacking the square.
      *
-     * @param boardSize the size of the board
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the attacking pieces
+     * @return the number of the attackers
      */
-    Board(int boardSize) {
-        size = boardSize;
+    public int getAttackersCount(int x, int y, PieceColor color) {
+        int square = (y - 1) * size + x - 1;
+        return color == PieceColor.WHITE ? whiteAttacks[square] : blackAttacks[square];
     }
 
     /**
-     * Method for getting possible moves count for the piece.
+     * Method for checking whether the square is attacked by the pieces of the color.
      *
-     * @param piece the piece
-     * @return the number of possible moves
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the attacking pieces
+     * @return true if at least one piece of the color attacks the square
      */
-    public int getPiecePossibleMovesCount(ChessPiece piece) {
-        return piece.getMovesCount(positionsToPieces, size);
+    public boolean isAttacked(int x, int y, PieceColor color) {
+        return getAttackersCount(x, y, color) > 0;
     }
 
     /**
-     * Method for getting possible captures count for the piece.
+     * Method for adding the attackers of both colors to the square.
      *
-     * @param piece the piece
-     * @return the number of possible captures
+     * @param square     the index of the square in the grid
+     * @param whiteCount the number of the white attackers to add
+     * @param blackCount the number of the black attackers to add
      */
-    public int getPiecePossibleCapturesCount(ChessPiece piece) {
-        return piece.getCapturesCount(positionsToPieces, size);
+    void add(int square, int whiteCount, int blackCount) {
+        whiteAttacks[square] += whiteCount;
+        blackAttacks[square] += blackCount;
     }
 
     /**
-     * Method for adding a piece to the board.
+     * Method for adding one attacker to the square if it is on the board.
      *
-     * @param piece the piece
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the attacker
      */
-    public void addPiece(ChessPiece piece) {
-        positionsToPieces.put(piece.getPosition().toString(), piece);
+    void addSquare(int x, int y, PieceColor color) {
+        if (x < 1 || x > size || y < 1 || y > size) {
+            return;
+        }
+        int square = (y - 1) * size + x - 1;
+        if (color == PieceColor.WHITE) {
+            whiteAttacks[square]++;
+        } else {
+            blackAttacks[square]++;
+        }
     }
 
     /**
-     * Method for getting a piece by its position.
+     * Method for adding the attacks of a piece jumping to the fixed offsets.
      *
-     * @param position the position of the piece
-     * @return the piece
+     * @param x        the x coordinate of the piece
+     * @param y        the y coordinate of the piece
+     * @param offsetXs the offsets by x
+     * @param offsetYs the offsets by y
+     * @param color    the color of the piece
      */
-    public ChessPiece getPiece(PiecePosition position) {
-        return positionsToPieces.get(position.toString());
+    void addOffsets(int x, int y, int[] offsetXs, int[] offsetYs, PieceColor color) {
+        for (int i = 0; i < offsetXs.length; i++) {
+            addSquare(x + offsetXs[i], y + offsetYs[i], color);
+        }
     }
 }
 
@@ -587,26 +6771,65 @@ abstract class ChessPiece {
         return color;
     }
 
+    /**
+     * Method for changing the position of the piece, used by the board when the piece is moved.
+     *
+     * @param newPosition the new position of the piece
+     */
+    void moveTo(PiecePosition newPosition) {
+        position = newPosition;
+    }
+
+    /**
+     * Method for creating the piece of the type.
+     *
+     * @param type          the type of the piece
+     * @param piecePosition the position of the piece
+     * @param pieceColor    the color of the piece
+     * @return the piece
+     */
+    static ChessPiece create(PieceType type, PiecePosition piecePosition, PieceColor pieceColor) {
+        switch (type) {
+            case KNIGHT:
+                return new Knight(piecePosition, pieceColor);
+            case KING:
+                return new King(piecePosition, pieceColor);
+            case PAWN:
+                return new Pawn(piecePosition, pieceColor);
+            case BISHOP:
+                return new Bishop(piecePosition, pieceColor);
+            case ROOK:
+                return new Rook(piecePosition, pieceColor);
+            default:
+                return new Queen(piecePosition, pieceColor);
+        }
+    }
+
+    /**
+     * Method for getting the type of the piece.
+     *
+     * @return the type of the piece
+     */
+    public abstract PieceType getType();
+
     /**
      * Method for getting the possible moves count of the piece.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
 
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getMovesCount(Board board) {
         return 0;
     }
 
     /**
      * Method for getting the possible captures count of the piece.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(Board board) {
         return 0;
     }
 }
@@ -625,146 +6848,62 @@ class Knight extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the knight.
+     *
+     * @return the type of the knight
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.KNIGHT;
+    }
+
     /**
      * Method for getting the possible moves count of the knight.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int movesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (x + 2 <= boardSize && y + 1 <= boardSize) {
-            if (!positions.containsKey((x + 2) + " " + (y + 1))) {
-                movesCount++;
-            } else if (positions.get((x + 2) + " " + (y + 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x + 2 <= boardSize && y - 1 > 0) {
-            if (!positions.containsKey((x + 2) + " " + (y - 1))) {
-                movesCount++;
-            } else if (positions.get((x + 2) + " " + (y - 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 2 > 0 && y + 1 <= boardSize) {
-            if (!positions.containsKey((x - 2) + " " + (y + 1))) {
-                movesCount++;
-            } else if (positions.get((x - 2) + " " + (y + 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 2 > 0 && y - 1 > 0) {
-            if (!positions.containsKey((x - 2) + " " + (y - 1))) {
-                movesCount++;
-            } else if (positions.get((x - 2) + " " + (y - 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x + 1 <= boardSize && y + 2 <= boardSize) {
-            if (!positions.containsKey((x + 1) + " " + (y + 2))) {
-                movesCount++;
-            } else if (positions.get((x + 1) + " " + (y + 2)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x + 1 <= boardSize && y - 2 > 0) {
-            if (!positions.containsKey((x + 1) + " " + (y - 2))) {
-                movesCount++;
-            } else if (positions.get((x + 1) + " " + (y - 2)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 1 > 0 && y + 2 <= boardSize) {
-            if (!positions.containsKey((x - 1) + " " + (y + 2))) {
-                movesCount++;
-            } else if (positions.get((x - 1) + " " + (y + 2)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 1 > 0 && y - 2 > 0) {
-            if (!positions.containsKey((x - 1) + " " + (y - 2))) {
-                movesCount++;
-            } else if (positions.get((x - 1) + " " + (y - 2)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        return movesCount;
+    public int getMovesCount(Board board) {
+        return countMoves(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible moves of the knight on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the knight
+     * @param y     the y coordinate of the knight
+     * @param color the color of the knight
+     * @return the number of possible moves
+     */
+    static int countMoves(SquareGrid grid, int x, int y, PieceColor color) {
+        return StepTable.KNIGHT.countMoves(grid, grid.getKnightOffsets(), x, y, color);
     }
 
     /**
      * Method for getting the possible captures count of the knight.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int capturesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (x + 2 <= boardSize && y + 1 <= boardSize) {
-            if (positions.containsKey((x + 2) + " " + (y + 1))) {
-                if (positions.get((x + 2) + " " + (y + 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x + 2 <= boardSize && y - 1 > 0) {
-            if (positions.containsKey((x + 2) + " " + (y - 1))) {
-                if (positions.get((x + 2) + " " + (y - 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 2 > 0 && y + 1 <= boardSize) {
-            if (positions.containsKey((x - 2) + " " + (y + 1))) {
-                if (positions.get((x - 2) + " " + (y + 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 2 > 0 && y - 1 > 0) {
-            if (positions.containsKey((x - 2) + " " + (y - 1))) {
-                if (positions.get((x - 2) + " " + (y - 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x + 1 <= boardSize && y + 2 <= boardSize) {
-            if (positions.containsKey((x + 1) + " " + (y + 2))) {
-                if (positions.get((x + 1) + " " + (y + 2)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x + 1 <= boardSize && y - 2 > 0) {
-            if (positions.containsKey((x + 1) + " " + (y - 2))) {
-                if (positions.get((x + 1) + " " + (y - 2)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 1 > 0 && y + 2 <= boardSize) {
-            if (positions.containsKey((x - 1) + " " + (y + 2))) {
-                if (positions.get((x - 1) + " " + (y + 2)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 1 > 0 && y - 2 > 0) {
-            if (positions.containsKey((x - 1) + " " + (y - 2))) {
-                if (positions.get((x - 1) + " " + (y - 2)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        return capturesCount;
+    public int getCapturesCount(Board board) {
+        return countCaptures(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible captures of the knight on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the knight
+     * @param y     the y coordinate of the knight
+     * @param color the color of the knight
+     * @return the number of possible captures
+     */
+    static int countCaptures(SquareGrid grid, int x, int y, PieceColor color) {
+        return StepTable.KNIGHT.countCaptures(grid, grid.getKnightOffsets(), x, y, color);
     }
 }
 
@@ -782,146 +6921,62 @@ class King extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the king.
+     *
+     * @return the type of the king
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.KING;
+    }
+
     /**
      * Method for getting the possible moves count of the king.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int movesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (x + 1 <= boardSize) {
-            if (!positions.containsKey((x + 1) + " " + y)) {
-                movesCount++;
-            } else if (positions.get((x + 1) + " " + y).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 1 > 0) {
-            if (!positions.containsKey((x - 1) + " " + y)) {
-                movesCount++;
-            } else if (positions.get((x - 1) + " " + y).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (y + 1 <= boardSize) {
-            if (!positions.containsKey(x + " " + (y + 1))) {
-                movesCount++;
-            } else if (positions.get(x + " " + (y + 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (y - 1 > 0) {
-            if (!positions.containsKey(x + " " + (y - 1))) {
-                movesCount++;
-            } else if (positions.get(x + " " + (y - 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x + 1 <= boardSize && y + 1 <= boardSize) {
-            if (!positions.containsKey((x + 1) + " " + (y + 1))) {
-                movesCount++;
-            } else if (positions.get((x + 1) + " " + (y + 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x + 1 <= boardSize && y - 1 > 0) {
-            if (!positions.containsKey((x + 1) + " " + (y - 1))) {
-                movesCount++;
-            } else if (positions.get((x + 1) + " " + (y - 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 1 > 0 && y + 1 <= boardSize) {
-            if (!positions.containsKey((x - 1) + " " + (y + 1))) {
-                movesCount++;
-            } else if (positions.get((x - 1) + " " + (y + 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        if (x - 1 > 0 && y - 1 > 0) {
-            if (!positions.containsKey((x - 1) + " " + (y - 1))) {
-                movesCount++;
-            } else if (positions.get((x - 1) + " " + (y - 1)).getColor() != color) {
-                movesCount++;
-            }
-        }
-        return movesCount;
+    public int getMovesCount(Board board) {
+        return countMoves(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible moves of the king on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the king
+     * @param y     the y coordinate of the king
+     * @param color the color of the king
+     * @return the number of possible moves
+     */
+    static int countMoves(SquareGrid grid, int x, int y, PieceColor color) {
+        return StepTable.KING.countMoves(grid, grid.getKingOffsets(), x, y, color);
     }
 
     /**
      * Method for getting the possible captures count of the king.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        int capturesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (x + 1 <= boardSize) {
-            if (positions.containsKey((x + 1) + " " + y)) {
-                if (positions.get((x + 1) + " " + y).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 1 > 0) {
-            if (positions.containsKey((x - 1) + " " + y)) {
-                if (positions.get((x - 1) + " " + y).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (y + 1 <= boardSize) {
-            if (positions.containsKey(x + " " + (y + 1))) {
-                if (positions.get(x + " " + (y + 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (y - 1 > 0) {
-            if (positions.containsKey(x + " " + (y - 1))) {
-                if (positions.get(x + " " + (y - 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x + 1 <= boardSize && y + 1 <= boardSize) {
-            if (positions.containsKey((x + 1) + " " + (y + 1))) {
-                if (positions.get((x + 1) + " " + (y + 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x + 1 <= boardSize && y - 1 > 0) {
-            if (positions.containsKey((x + 1) + " " + (y - 1))) {
-                if (positions.get((x + 1) + " " + (y - 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 1 > 0 && y + 1 <= boardSize) {
-            if (positions.containsKey((x - 1) + " " + (y + 1))) {
-                if (positions.get((x - 1) + " " + (y + 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        if (x - 1 > 0 && y - 1 > 0) {
-            if (positions.containsKey((x - 1) + " " + (y - 1))) {
-                if (positions.get((x - 1) + " " + (y - 1)).getColor() != color) {
-                    capturesCount++;
-                }
-            }
-        }
-        return capturesCount;
+    public int getCapturesCount(Board board) {
+        return countCaptures(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible captures of the king on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the king
+     * @param y     the y coordinate of the king
+     * @param color the color of the king
+     * @return the number of possible captures
+     */
+    static int countCaptures(SquareGrid grid, int x, int y, PieceColor color) {
+        return StepTable.KING.countCaptures(grid, grid.getKingOffsets(), x, y, color);
     }
 }
 
@@ -939,32 +6994,50 @@ class Pawn extends ChessPiece {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the pawn.
+     *
+     * @return the type of the pawn
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.PAWN;
+    }
+
     /**
      * Method for getting the possible moves count of the pawn.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getMovesCount(Board board) {
+        return countMoves(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible moves of the pawn on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the pawn
+     * @param y     the y coordinate of the pawn
+     * @param color the color of the pawn
+     * @return the number of possible moves
+     */
+    static int countMoves(SquareGrid grid, int x, int y, PieceColor color) {
         int movesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (color == PieceColor.WHITE) {
-            y++;
-        } else {
-            y--;
+        int forward = color == PieceColor.WHITE ? y + 1 : y - 1;
+        int boardSize = grid.getSize();
+        if (forward < 1 || forward > boardSize) {
+            return movesCount;
         }
-        if (x > 0 && x <= boardSize && y > 0 && y <= boardSize) {
-            if (positions.get(x + " " + y) == null) {
-                movesCount++;
-            }
+        if (!grid.isOccupied(x, forward)) {
+            movesCount++;
         }
-        if (positions.get(x + 1 + " " + y) != null && positions.get(x + 1 + " " + y).getColor() != getColor()) {
+        if (x + 1 <= boardSize && grid.isOccupied(x + 1, forward) && grid.getColor(x + 1, forward) != color) {
             movesCount++;
         }
-        if (positions.get(x - 1 + " " + y) != null && positions.get(x - 1 + " " + y).getColor() != getColor()) {
+        if (x - 1 > 0 && grid.isOccupied(x - 1, forward) && grid.getColor(x - 1, forward) != color) {
             movesCount++;
         }
         return movesCount;
@@ -973,24 +7046,34 @@ class Pawn extends ChessPiece {
     /**
      * Method for getting the possible captures count of the pawn.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
+    public int getCapturesCount(Board board) {
+        return countCaptures(board.getGrid(), position.getX(), position.getY(), color);
+    }
+
+    /**
+     * Method for counting the possible captures of the pawn on the square.
+     *
+     * @param grid  the occupancy grid of the board
+     * @param x     the x coordinate of the pawn
+     * @param y     the y coordinate of the pawn
+     * @param color the color of the pawn
+     * @return the number of possible captures
+     */
+    static int countCaptures(SquareGrid grid, int x, int y, PieceColor color) {
         int capturesCount = 0;
-        int x = position.getX();
-        int y = position.getY();
-        if (color == PieceColor.WHITE) {
-            y++;
-        } else {
-            y--;
+        int forward = color == PieceColor.WHITE ? y + 1 : y - 1;
+        int boardSize = grid.getSize();
+        if (forward < 1 || forward > boardSize) {
+            return capturesCount;
         }
-        if (positions.get(x + 1 + " " + y) != null && positions.get(x + 1 + " " + y).getColor() != getColor()) {
+        if (x + 1 <= boardSize && grid.isOccupied(x + 1, forward) && grid.getColor(x + 1, forward) != color) {
             capturesCount++;
         }
-        if (positions.get(x - 1 + " " + y) != null && positions.get(x - 1 + " " + y).getColor() != getColor()) {
+        if (x - 1 > 0 && grid.isOccupied(x - 1, forward) && grid.getColor(x - 1, forward) != color) {
             capturesCount++;
         }
         return capturesCount;
@@ -1011,28 +7094,36 @@ class Bishop extends ChessPiece implements BishopMovement {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the bishop.
+     *
+     * @return the type of the bishop
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.BISHOP;
+    }
+
     /**
      * Method for getting the possible moves count of the bishop.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalMovesCount(position, color, positions, boardSize);
+    public int getMovesCount(Board board) {
+        return getDiagonalMovesCount(position, color, board.getRayIndex());
     }
 
     /**
      * Method for getting the possible captures count of the bishop.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalCapturesCount(position, color, positions, boardSize);
+    public int getCapturesCount(Board board) {
+        return getDiagonalCapturesCount(position, color, board.getRayIndex());
     }
 }
 
@@ -1050,28 +7141,36 @@ class Rook extends ChessPiece implements RookMovement {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the rook.
+     *
+     * @return the type of the rook
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.ROOK;
+    }
+
     /**
      * Method for getting the possible moves count of the rook.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getOrthogonalMovesCount(position, color, positions, boardSize);
+    public int getMovesCount(Board board) {
+        return getOrthogonalMovesCount(position, color, board.getRayIndex());
     }
 
     /**
      * Method for getting the possible captures count of the rook.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getOrthogonalCapturesCount(position, color, positions, boardSize);
+    public int getCapturesCount(Board board) {
+        return getOrthogonalCapturesCount(position, color, board.getRayIndex());
     }
 }
 
@@ -1089,30 +7188,38 @@ class Queen extends ChessPiece implements BishopMovement, RookMovement {
         super(position, color);
     }
 
+    /**
+     * Method for getting the type of the queen.
+     *
+     * @return the type of the queen
+     */
+    @Override
+    public PieceType getType() {
+        return PieceType.QUEEN;
+    }
+
     /**
      * Method for getting the possible moves count of the queen.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible moves
      */
     @Override
-    public int getMovesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalMovesCount(position, color, positions, boardSize)
-                + getOrthogonalMovesCount(position, color, positions, boardSize);
+    public int getMovesCount(Board board) {
+        return getDiagonalMovesCount(position, color, board.getRayIndex())
+                + getOrthogonalMovesCount(position, color, board.getRayIndex());
     }
 
     /**
      * Method for getting the possible captures count of the queen.
      *
-     * @param positions the map of the positions
-     * @param boardSize the size of the board
+     * @param board the board
      * @return the number of possible captures
      */
     @Override
-    public int getCapturesCount(Map<String, ChessPiece> positions, int boardSize) {
-        return getDiagonalCapturesCount(position, color, positions, boardSize)
-                + getOrthogonalCapturesCount(position, color, positions, boardSize);
+    public int getCapturesCount(Board board) {
+        return getDiagonalCapturesCount(position, color, board.getRayIndex())
+                + getOrthogonalCapturesCount(position, color, board.getRayIndex());
     }
 
 }
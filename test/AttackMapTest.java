@@ -0,0 +1,88 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of the attack map.
+ * On random small boards of every storage, some with removed pieces, it compares the number of the attackers
+ * of both colors on every square with the count of a square by square brute force.
+ */
+public final class AttackMapTest {
+    /**
+     * number of the random positions of every storage.
+     */
+    private static final int POSITIONS = 200;
+    /**
+     * largest size of the random boards.
+     */
+    private static final int MAX_SIZE = 12;
+    /**
+     * seed of the random positions.
+     */
+    private static final long SEED = 14;
+
+    private AttackMapTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (BoardStorage storage : BoardStorage.values()) {
+            for (int position = 0; position < POSITIONS; position++) {
+                int size = Main.MIN_BOARD_SIZE + random.nextInt(MAX_SIZE - Main.MIN_BOARD_SIZE + 1);
+                List<ChessPiece> pieces = BruteForceBoard.randomPieces(random, size, random.nextInt(size * size));
+                Board board = Board.create(size, storage);
+                for (ChessPiece piece : pieces) {
+                    board.addPiece(piece);
+                }
+                for (int i = pieces.size() - 1; i >= 2; i--) {
+                    if (random.nextInt(4) == 0) {
+                        board.removePiece(pieces.get(i));
+                        pieces.set(i, null);
+                    }
+                }
+                compare(board.buildAttackMap(), new BruteForceBoard(size, pieces),
+                        storage.getName() + " position " + position);
+            }
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for comparing the attack map with the brute force on every square.
+     *
+     * @param map         the attack map of the board
+     * @param expected    the brute force board of the same pieces
+     * @param description the description of the position
+     */
+    private static void compare(AttackMap map, BruteForceBoard expected, String description) {
+        int size = expected.getSize();
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                for (PieceColor color : PieceColor.values()) {
+                    int attackers = expected.getAttackersCount(x, y, color);
+                    check(map.getAttackersCount(x, y, color) == attackers,
+                            "the " + description + " has " + map.getAttackersCount(x, y, color) + " "
+                                    + color.getName() + " attackers of " + x + " " + y + " instead of " + attackers);
+                    check(map.isAttacked(x, y, color) == attackers > 0,
+                            "the " + description + " marks " + x + " " + y + " attacked wrong");
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Test of the binary formats.
+ * It checks that a position converted to the binary format evaluates to the same results as the text one,
+ * that the malformed and truncated binary results are rejected with an input error instead of hanging
+ * or returning garbage, and that a truncated binary position is an invalid input.
+ */
+public final class BinaryFormatTest {
+    /**
+     * text position of the round trip.
+     */
+    private static final String POSITION = "5\n4\nKing White 1 1\nKing Black 5 5\nQueen White 3 3\nPawn Black 3 4\n";
+    /**
+     * time given to the conversion of one malformed file in milliseconds.
+     */
+    private static final long TIMEOUT_MILLIS = 10_000;
+    /**
+     * byte of a varint followed by more bytes.
+     */
+    private static final byte CONTINUED = (byte) 0xFF;
+
+    private BinaryFormatTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     * @throws IOException          if the temporary files can not be written
+     * @throws InterruptedException if the waiting for a conversion is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("chess-binary-test");
+        try {
+            roundTripsThePosition(directory);
+            rejectsMalformedResults(directory);
+            rejectsTruncatedPosition(directory);
+        } finally {
+            for (String name : directory.toFile().list()) {
+                Files.delete(directory.resolve(name));
+            }
+            Files.delete(directory);
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for checking that the binary evaluation gives the results of the text one.
+     *
+     * @param directory the directory of the temporary files
+     * @throws IOException if the files can not be read or written
+     */
+    private static void roundTripsThePosition(Path directory) throws IOException {
+        Path text = write(directory.resolve("input.txt"), POSITION.getBytes(StandardCharsets.US_ASCII));
+        Path expected = directory.resolve("expected.txt");
+        Main.solve(text.toString(), expected.toString());
+        Path binary = directory.resolve("input.bin");
+        check(BinaryFormat.toBinary(text.toString(), binary.toString()) == null, "the valid position is rejected");
+        Path results = directory.resolve("output.bin");
+        BinaryFormat.solve(binary.toString(), results.toString());
+        Path actual = directory.resolve("output.txt");
+        BinaryFormat.toText(results.toString(), actual.toString());
+        check(Arrays.equals(Files.readAllBytes(expected), Files.readAllBytes(actual)),
+                "the binary results differ from the text ones");
+    }
+
+    /**
+     * Method for checking that the conversion of the malformed and truncated results fails with an input error.
+     *
+     * @param directory the directory of the temporary files
+     * @throws IOException          if the files can not be written
+     * @throws InterruptedException if the waiting for a conversion is interrupted
+     */
+    private static void rejectsMalformedResults(Path directory) throws IOException, InterruptedException {
+        byte[][] malformed = {
+            results(1),
+            results(1, 3, CONTINUED),
+            results(1, CONTINUED, CONTINUED, CONTINUED, CONTINUED, CONTINUED, 1, 0),
+            results(1, CONTINUED, CONTINUED, CONTINUED, CONTINUED, 0x0F, 0),
+            results(BinaryFormat.ERROR_COUNT, CONTINUED, CONTINUED, CONTINUED, CONTINUED, 0x07),
+            results(BinaryFormat.ERROR_COUNT, (byte) 0x81, (byte) 0x80, 0x08),
+            results(BinaryFormat.ERROR_COUNT, 10, 'I', 'n'),
+            Arrays.copyOf(results(1), 2),
+        };
+        for (int i = 0; i < malformed.length; i++) {
+            Path input = write(directory.resolve("malformed" + i + ".bin"), malformed[i]);
+            Path output = directory.resolve("malformed" + i + ".txt");
+            IOException[] error = new IOException[1];
+            Thread conversion = new Thread(() -> {
+                try {
+                    BinaryFormat.toText(input.toString(), output.toString());
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            conversion.setDaemon(true);
+            conversion.start();
+            conversion.join(TIMEOUT_MILLIS);
+            check(!conversion.isAlive(), "the conversion of the malformed results " + i + " does not end");
+            check(error[0] != null, "the malformed results " + i + " are converted");
+        }
+    }
+
+    /**
+     * Method for checking that the evaluation of a truncated binary position reports an invalid input.
+     *
+     * @param directory the directory of the temporary files
+     * @throws IOException if the files can not be read or written
+     */
+    private static void rejectsTruncatedPosition(Path directory) throws IOException {
+        Path text = write(directory.resolve("whole.txt"), POSITION.getBytes(StandardCharsets.US_ASCII));
+        Path binary = directory.resolve("whole.bin");
+        BinaryFormat.toBinary(text.toString(), binary.toString());
+        byte[] bytes = Files.readAllBytes(binary);
+        Path truncated = write(directory.resolve("truncated.bin"), Arrays.copyOf(bytes, bytes.length - 1));
+        Path results = directory.resolve("truncated.out.bin");
+        BinaryFormat.solve(truncated.toString(), results.toString());
+        Path message = directory.resolve("truncated.out.txt");
+        BinaryFormat.toText(results.toString(), message.toString());
+        String actual = new String(Files.readAllBytes(message), StandardCharsets.US_ASCII);
+        check(actual.equals(new InvalidInputException().getMessage()), "the truncated position gives " + actual);
+    }
+
+    /**
+     * Method for building the binary results with the header and the raw bytes after it.
+     *
+     * @param count the number of pieces or the error count
+     * @param body  the bytes after the header
+     * @return the bytes of the results
+     */
+    private static byte[] results(int count, int... body) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * Integer.BYTES + body.length);
+        buffer.putInt(BinaryFormat.RESULTS_MAGIC).putInt(count);
+        for (int value : body) {
+            buffer.put((byte) value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Method for writing the bytes into the file.
+     *
+     * @param file  the file
+     * @param bytes the bytes
+     * @return the file
+     * @throws IOException if the file can not be written
+     */
+    private static Path write(Path file, byte[] bytes) throws IOException {
+        return Files.write(file, bytes);
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of the backends and storages of the board.
+ * It evaluates random positions with every backend and every storage, sequentially and in parallel,
+ * and compares the moves and captures counts with the walk backend on the heap storage,
+ * which reads the squares one by one. The large positions have enough pieces to be split in parallel.
+ */
+public final class BoardBackendTest {
+    /**
+     * number of the random small positions.
+     */
+    private static final int POSITIONS = 100;
+    /**
+     * largest size of the random small boards.
+     */
+    private static final int MAX_SIZE = 12;
+    /**
+     * number of the random large positions.
+     */
+    private static final int LARGE_POSITIONS = 3;
+    /**
+     * size of the large boards.
+     */
+    private static final int LARGE_SIZE = 100;
+    /**
+     * seed of the random positions.
+     */
+    private static final long SEED = 20;
+
+    private BoardBackendTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (int position = 0; position < POSITIONS + LARGE_POSITIONS; position++) {
+            int size = LARGE_SIZE;
+            int attempts = size * size;
+            if (position < POSITIONS) {
+                size = Main.MIN_BOARD_SIZE + random.nextInt(MAX_SIZE - Main.MIN_BOARD_SIZE + 1);
+                attempts = random.nextInt(size * size);
+            }
+            compare(size, BruteForceBoard.randomPieces(random, size, attempts), "position " + position);
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for comparing the evaluation of every backend and storage with the walk backend on the heap storage.
+     *
+     * @param size        the size of the board
+     * @param pieces      the pieces of the position
+     * @param description the description of the position
+     */
+    private static void compare(int size, List<ChessPiece> pieces, String description) {
+        int[] expected = evaluate(size, pieces, BoardStorage.HEAP, BoardBackend.WALK, false);
+        for (BoardStorage storage : BoardStorage.values()) {
+            for (BoardBackend backend : BoardBackend.values()) {
+                for (boolean parallel : new boolean[] {false, true}) {
+                    check(Arrays.equals(expected, evaluate(size, pieces, storage, backend, parallel)),
+                            "the " + storage.getName() + " storage with the " + backend.getName() + " backend"
+                                    + (parallel ? " in parallel" : "") + " differs from the walk on the "
+                                    + description + " of " + pieces.size() + " pieces of size " + size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for evaluating the position with the given storage and backend.
+     *
+     * @param size     the size of the board
+     * @param pieces   the pieces of the position
+     * @param storage  the storage of the board
+     * @param backend  the backend of the evaluation
+     * @param parallel whether the pieces are evaluated in parallel
+     * @return the moves and captures counts of the pieces
+     */
+    private static int[] evaluate(int size, List<ChessPiece> pieces, BoardStorage storage, BoardBackend backend,
+                                  boolean parallel) {
+        GridBoard board = new GridBoard(size, storage);
+        for (ChessPiece piece : pieces) {
+            board.addPiece(piece.getType(), piece.getColor(), piece.getPosition().getX(),
+                    piece.getPosition().getY());
+        }
+        int[] results = new int[2 * pieces.size()];
+        System.setProperty(Board.BACKEND_PROPERTY, backend.getName());
+        try {
+            check(board.getBackend() == backend, "the " + backend.getName() + " backend is not chosen");
+        } finally {
+            System.clearProperty(Board.BACKEND_PROPERTY);
+        }
+        if (parallel) {
+            board.evaluateAllParallel(results);
+        } else {
+            board.evaluateAll(results);
+        }
+        return results;
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reference board of the tests answering every question square by square from a plain array of the pieces.
+ * It shares no code with the boards of the program, so the tests compare the fast answers against it.
+ * The squares of the moves are the indices (y - 1) * n + (x - 1), as in the generated moves.
+ */
+final class BruteForceBoard {
+    /**
+     * steps by x of the eight directions of the king, the queen, the rook and the bishop.
+     */
+    static final int[] DIRECTION_XS = {0, 1, 1, 1, 0, -1, -1, -1};
+    /**
+     * steps by y of the eight directions of the king, the queen, the rook and the bishop.
+     */
+    static final int[] DIRECTION_YS = {1, 1, 0, -1, -1, -1, 0, 1};
+    /**
+     * offsets by x of the eight jumps of the knight.
+     */
+    private static final int[] JUMP_XS = {1, 2, 2, 1, -1, -2, -2, -1};
+    /**
+     * offsets by y of the eight jumps of the knight.
+     */
+    private static final int[] JUMP_YS = {2, 1, -1, -2, -2, -1, 1, 2};
+    /**
+     * size of the board.
+     */
+    private final int size;
+    /**
+     * types of the pieces by x and y, null for the empty squares.
+     */
+    private final PieceType[][] types;
+    /**
+     * colors of the pieces by x and y, null for the empty squares.
+     */
+    private final PieceColor[][] colors;
+
+    /**
+     * Constructor for the board of the pieces at their current positions.
+     *
+     * @param boardSize the size of the board
+     * @param pieces    the pieces, the null ones are skipped
+     */
+    BruteForceBoard(int boardSize, List<ChessPiece> pieces) {
+        size = boardSize;
+        types = new PieceType[boardSize + 1][boardSize + 1];
+        colors = new PieceColor[boardSize + 1][boardSize + 1];
+        for (ChessPiece piece : pieces) {
+            if (piece != null) {
+                types[piece.getPosition().getX()][piece.getPosition().getY()] = piece.getType();
+                colors[piece.getPosition().getX()][piece.getPosition().getY()] = piece.getColor();
+            }
+        }
+    }
+
+    /**
+     * Constructor for the copy of the board.
+     *
+     * @param board the copied board
+     */
+    private BruteForceBoard(BruteForceBoard board) {
+        size = board.size;
+        types = new PieceType[size + 1][];
+        colors = new PieceColor[size + 1][];
+        for (int x = 0; x <= size; x++) {
+            types[x] = board.types[x].clone();
+            colors[x] = board.colors[x].clone();
+        }
+    }
+
+    /**
+     * Method for generating the pieces of a random position with one king of every color.
+     *
+     * @param random    the source of the randomness
+     * @param boardSize the size of the board
+     * @param attempts  the number of the attempts to place another piece, the occupied squares are skipped
+     * @return the pieces, the kings first
+     */
+    static List<ChessPiece> randomPieces(Random random, int boardSize, int attempts) {
+        List<ChessPiece> pieces = new ArrayList<>();
+        boolean[][] occupied = new boolean[boardSize + 1][boardSize + 1];
+        PieceType[] types = PieceType.values();
+        for (int i = 0; i < attempts || pieces.size() < 2; i++) {
+            int x = 1 + random.nextInt(boardSize);
+            int y = 1 + random.nextInt(boardSize);
+            if (occupied[x][y]) {
+                continue;
+            }
+            occupied[x][y] = true;
+            boolean king = pieces.size() < 2;
+            PieceType type = king ? PieceType.KING : types[1 + random.nextInt(types.length - 1)];
+            PieceColor color = PieceColor.values()[king ? pieces.size() : random.nextInt(2)];
+            pieces.add(ChessPiece.create(type, new PiecePosition(x, y), color));
+        }
+        return pieces;
+    }
+
+    /**
+     * Method for getting the size of the board.
+     *
+     * @return the size of the board
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Method for getting the color of the piece on the square.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the color or null if the square is empty
+     */
+    PieceColor getColor(int x, int y) {
+        return colors[x][y];
+    }
+
+    /**
+     * Method for getting the board after the piece moves, the piece on the target square is captured.
+     *
+     * @param x       the x coordinate of the piece
+     * @param y       the y coordinate of the piece
+     * @param targetX the x coordinate of the target square
+     * @param targetY the y coordinate of the target square
+     * @return the new board, this one is not changed
+     */
+    BruteForceBoard move(int x, int y, int targetX, int targetY) {
+        BruteForceBoard board = new BruteForceBoard(this);
+        board.types[targetX][targetY] = types[x][y];
+        board.colors[targetX][targetY] = colors[x][y];
+        board.types[x][y] = null;
+        board.colors[x][y] = null;
+        return board;
+    }
+
+    /**
+     * Method for getting the distance to the nearest piece along the ray by walking it.
+     *
+     * @param x  the x coordinate of the start square
+     * @param y  the y coordinate of the start square
+     * @param dx the step of the ray by x
+     * @param dy the step of the ray by y
+     * @return the number of steps to the nearest piece or 0 if the ray reaches the edge
+     */
+    int getBlockerDistance(int x, int y, int dx, int dy) {
+        for (int distance = 1; isOnBoard(x + distance * dx, y + distance * dy); distance++) {
+            if (types[x + distance * dx][y + distance * dy] != null) {
+                return distance;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Method for listing the squares attacked by the piece on the square, whatever stands on them.
+     * A slider attacks its rays up to and including the first occupied square.
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return the attacked squares
+     */
+    List<Integer> getAttackedSquares(int x, int y) {
+        List<Integer> squares = new ArrayList<>();
+        PieceType type = types[x][y];
+        if (type == PieceType.PAWN) {
+            int forward = colors[x][y] == PieceColor.WHITE ? y + 1 : y - 1;
+            addSquare(squares, x - 1, forward);
+            addSquare(squares, x + 1, forward);
+            return squares;
+        }
+        for (int direction = 0; direction < DIRECTION_XS.length; direction++) {
+            int dx = DIRECTION_XS[direction];
+            int dy = DIRECTION_YS[direction];
+            boolean orthogonal = dx == 0 || dy == 0;
+            if (type == PieceType.KING) {
+                addSquare(squares, x + dx, y + dy);
+            } else if (type == PieceType.KNIGHT) {
+                addSquare(squares, x + JUMP_XS[direction], y + JUMP_YS[direction]);
+            } else if (type == PieceType.QUEEN || type == PieceType.ROOK && orthogonal
+                    || type == PieceType.BISHOP && !orthogonal) {
+                for (int step = 1; isOnBoard(x + step * dx, y + step * dy); step++) {
+                    addSquare(squares, x + step * dx, y + step * dy);
+                    if (types[x + step * dx][y + step * dy] != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        return squares;
+    }
+
+    /**
+     * Method for counting the pieces of the color attacking the square.
+     *
+     * @param x     the x coordinate of the square
+     * @param y     the y coordinate of the square
+     * @param color the color of the attackers
+     * @return the number of the attackers
+     */
+    int getAttackersCount(int x, int y, PieceColor color) {
+        int count = 0;
+        for (int pieceX = 1; pieceX <= size; pieceX++) {
+            for (int pieceY = 1; pieceY <= size; pieceY++) {
+                if (colors[pieceX][pieceY] == color
+                        && getAttackedSquares(pieceX, pieceY).contains(index(x, y))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method for listing the possible moves of the piece on the square in the ascending order of the squares.
+     * The piece moves to the attacked squares not taken by its own pieces, except a pawn,
+     * which steps forward to an empty square and captures diagonally forward.
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return the destination squares
+     */
+    int[] getMoves(int x, int y) {
+        List<Integer> squares = new ArrayList<>();
+        PieceColor color = colors[x][y];
+        if (types[x][y] == PieceType.PAWN) {
+            int forward = color == PieceColor.WHITE ? y + 1 : y - 1;
+            if (isOnBoard(x, forward) && types[x][forward] == null) {
+                squares.add(index(x, forward));
+            }
+        }
+        for (int square : getAttackedSquares(x, y)) {
+            PieceColor target = colors[square % size + 1][square / size + 1];
+            boolean pawn = types[x][y] == PieceType.PAWN;
+            if (target != color && (!pawn || target != null)) {
+                squares.add(square);
+            }
+        }
+        int[] moves = squares.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(moves);
+        return moves;
+    }
+
+    /**
+     * Method for counting the possible captures of the piece on the square.
+     *
+     * @param x the x coordinate of the piece
+     * @param y the y coordinate of the piece
+     * @return the number of the moves to the squares of the enemy pieces
+     */
+    int getCapturesCount(int x, int y) {
+        int count = 0;
+        for (int square : getMoves(x, y)) {
+            if (colors[square % size + 1][square / size + 1] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method for checking whether a king of the color is attacked by an enemy piece.
+     *
+     * @param color the color of the king
+     * @return true if a king of the color is attacked
+     */
+    boolean isInCheck(PieceColor color) {
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if (types[x][y] == PieceType.KING && colors[x][y] == color
+                        && getAttackersCount(x, y, color.opposite()) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for listing the squares next to the king of the color where it is not in check,
+     * found by making every step of the king and looking for the check on the new board.
+     *
+     * @param color the color of the king
+     * @return the safe squares in the ascending order of the squares
+     */
+    int[] getSafeKingMoves(PieceColor color) {
+        List<Integer> squares = new ArrayList<>();
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                if (types[x][y] != PieceType.KING || colors[x][y] != color) {
+                    continue;
+                }
+                for (int square : getMoves(x, y)) {
+                    int targetX = square % size + 1;
+                    int targetY = square / size + 1;
+                    if (!move(x, y, targetX, targetY).isInCheck(color)) {
+                        squares.add(square);
+                    }
+                }
+            }
+        }
+        int[] moves = squares.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(moves);
+        return moves;
+    }
+
+    /**
+     * Method for getting the index of the square in the grid.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return the index (y - 1) * n + (x - 1)
+     */
+    int index(int x, int y) {
+        return (y - 1) * size + x - 1;
+    }
+
+    /**
+     * Method for adding the square to the list if it is on the board.
+     *
+     * @param squares the list of the squares
+     * @param x       the x coordinate of the square
+     * @param y       the y coordinate of the square
+     */
+    private void addSquare(List<Integer> squares, int x, int y) {
+        if (isOnBoard(x, y)) {
+            squares.add(index(x, y));
+        }
+    }
+
+    /**
+     * Method for checking whether the square is on the board.
+     *
+     * @param x the x coordinate of the square
+     * @param y the y coordinate of the square
+     * @return true if both coordinates are in [1, size]
+     */
+    private boolean isOnBoard(int x, int y) {
+        return x >= 1 && x <= size && y >= 1 && y <= size;
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of the check detection and of the safe king moves.
+ * It compares isInCheck and safeKingMoves with a brute force making every step of the king on random small boards,
+ * also after the kings were moved, and checks that a king attacked by a slider can not retreat along the ray.
+ */
+public final class CheckDetectionTest {
+    /**
+     * number of the random positions.
+     */
+    private static final int POSITIONS = 2000;
+    /**
+     * largest size of the random boards.
+     */
+    private static final int MAX_SIZE = 10;
+    /**
+     * size of the board of the retreats along the checking ray.
+     */
+    private static final int RAY_SIZE = 8;
+    /**
+     * seed of the random positions.
+     */
+    private static final long SEED = 15;
+
+    private CheckDetectionTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        forbidsRetreatsAlongTheCheckingRay();
+        matchesTheBruteForce();
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for checking that the king can not step back along the ray of the slider checking it,
+     * where the king itself was the only blocker.
+     */
+    private static void forbidsRetreatsAlongTheCheckingRay() {
+        PieceType[] sliders = {PieceType.ROOK, PieceType.BISHOP, PieceType.QUEEN, PieceType.QUEEN};
+        PiecePosition[] attackers = {new PiecePosition(1, 4), new PiecePosition(1, 1), new PiecePosition(4, 8),
+            new PiecePosition(7, 1)};
+        PiecePosition[] retreats = {new PiecePosition(5, 4), new PiecePosition(5, 5), new PiecePosition(4, 3),
+            new PiecePosition(3, 5)};
+        for (int i = 0; i < sliders.length; i++) {
+            List<ChessPiece> pieces = new ArrayList<>();
+            pieces.add(ChessPiece.create(PieceType.KING, new PiecePosition(4, 4), PieceColor.BLACK));
+            pieces.add(ChessPiece.create(PieceType.KING, new PiecePosition(RAY_SIZE, RAY_SIZE), PieceColor.WHITE));
+            pieces.add(ChessPiece.create(sliders[i], attackers[i], PieceColor.WHITE));
+            Board board = createBoard(RAY_SIZE, pieces);
+            String description = "the " + sliders[i].getName() + " on " + attackers[i];
+            check(board.isInCheck(PieceColor.BLACK), description + " does not give check");
+            for (PiecePosition move : board.safeKingMoves(PieceColor.BLACK)) {
+                check(move.getX() != retreats[i].getX() || move.getY() != retreats[i].getY(),
+                        "the king retreats to " + retreats[i] + " along the ray of " + description);
+            }
+            compare(board, new BruteForceBoard(RAY_SIZE, pieces), description);
+        }
+    }
+
+    /**
+     * Method for comparing the check detection with the brute force on the random positions.
+     */
+    private static void matchesTheBruteForce() {
+        Random random = new Random(SEED);
+        for (int position = 0; position < POSITIONS; position++) {
+            int size = Main.MIN_BOARD_SIZE + random.nextInt(MAX_SIZE - Main.MIN_BOARD_SIZE + 1);
+            List<ChessPiece> pieces = BruteForceBoard.randomPieces(random, size, random.nextInt(size * size / 2 + 1));
+            Board board = createBoard(size, pieces);
+            String description = "position " + position;
+            compare(board, new BruteForceBoard(size, pieces), description);
+            for (int king = 0; king < 2; king++) {
+                List<PiecePosition> moves = board.safeKingMoves(pieces.get(king).getColor());
+                PiecePosition target = moves.isEmpty() ? null : moves.get(random.nextInt(moves.size()));
+                if (target != null && board.getPiece(target) == null) {
+                    board.movePiece(pieces.get(king), target);
+                    compare(board, new BruteForceBoard(size, pieces), description + " after a king move");
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for comparing the check and the safe king moves of both colors with the brute force.
+     *
+     * @param board       the board
+     * @param expected    the brute force board of the same pieces
+     * @param description the description of the position
+     */
+    private static void compare(Board board, BruteForceBoard expected, String description) {
+        for (PieceColor color : PieceColor.values()) {
+            check(board.isInCheck(color) == expected.isInCheck(color),
+                    "the check of the " + color.getName() + " king differs in the " + description);
+            List<PiecePosition> moves = board.safeKingMoves(color);
+            int[] squares = new int[moves.size()];
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] = expected.index(moves.get(i).getX(), moves.get(i).getY());
+            }
+            Arrays.sort(squares);
+            check(Arrays.equals(squares, expected.getSafeKingMoves(color)),
+                    "the safe moves of the " + color.getName() + " king differ in the " + description);
+        }
+    }
+
+    /**
+     * Method for creating the board with the pieces.
+     *
+     * @param size   the size of the board
+     * @param pieces the pieces
+     * @return the board
+     */
+    private static Board createBoard(int size, List<ChessPiece> pieces) {
+        Board board = Board.create(size);
+        for (ChessPiece piece : pieces) {
+            board.addPiece(piece);
+        }
+        return board;
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Test of the allocation-free evaluation.
+ * For every backend it warms up a board and checks that the repeated evaluations into the same buffer
+ * do not allocate, measured by the allocated bytes of the current thread.
+ */
+public final class EvaluationAllocationTest {
+    /**
+     * size of the tested board.
+     */
+    private static final int SIZE = 64;
+    /**
+     * number of the pieces besides the kings.
+     */
+    private static final int PIECES = 600;
+    /**
+     * number of the warm-up evaluations.
+     */
+    private static final int WARMUP_ITERATIONS = 2000;
+    /**
+     * number of the measured evaluations.
+     */
+    private static final int MEASURED_ITERATIONS = 1000;
+    /**
+     * allocated bytes tolerated over all measured evaluations, far less than one byte per evaluation.
+     */
+    private static final long TOLERATED_BYTES = 512;
+    /**
+     * seed of the generated position.
+     */
+    private static final long SEED = 5;
+
+    private EvaluationAllocationTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (BoardBackend backend : BoardBackend.values()) {
+            System.setProperty(Board.BACKEND_PROPERTY, backend.getName());
+            GridBoard board = createPosition();
+            int[] results = new int[2 * board.getPiecesCount()];
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                board.evaluateAll(results);
+            }
+            System.clearProperty(Board.BACKEND_PROPERTY);
+            if (board.getBackend() != backend) {
+                throw new IllegalStateException("the " + backend.getName() + " backend is not chosen");
+            }
+            long before = threads.getCurrentThreadAllocatedBytes();
+            long overhead = threads.getCurrentThreadAllocatedBytes() - before;
+            long start = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                board.evaluateAll(results);
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - start - overhead;
+            if (allocated > TOLERATED_BYTES) {
+                throw new IllegalStateException("the " + backend.getName() + " backend allocated " + allocated
+                        + " bytes in " + MEASURED_ITERATIONS + " evaluations");
+            }
+            System.out.println(backend.getName() + ": " + allocated + " bytes");
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for creating the board with the kings and random pieces.
+     *
+     * @return the board
+     */
+    private static GridBoard createPosition() {
+        Random random = new Random(SEED);
+        GridBoard board = new GridBoard(SIZE);
+        board.addPiece(PieceType.KING, PieceColor.WHITE, 1, 1);
+        board.addPiece(PieceType.KING, PieceColor.BLACK, SIZE, SIZE);
+        PieceType[] others = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT, PieceType.PAWN};
+        for (int i = 0; i < PIECES; i++) {
+            int x = 1 + random.nextInt(SIZE);
+            int y = 1 + random.nextInt(SIZE);
+            if (!board.isOccupied(x, y)) {
+                PieceColor color = random.nextBoolean() ? PieceColor.WHITE : PieceColor.BLACK;
+                board.addPiece(others[random.nextInt(others.length)], color, x, y);
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test of the statistics of the evaluation cache.
+ * It evaluates a batch with a repeated position and checks the hits and misses of the shared cache
+ * and the statistics line printed to the standard error, then checks the evictions over a small budget.
+ */
+public final class EvaluationCacheTest {
+    /**
+     * position evaluated three times by the batch.
+     */
+    private static final String REPEATED = "3\n2\nKing White 1 1\nKing Black 3 3\n";
+    /**
+     * position evaluated once by the batch.
+     */
+    private static final String SINGLE = "4\n3\nKing White 1 1\nKing Black 4 4\nRook White 2 3\n";
+    /**
+     * memory budget holding three entries of four results, of 112 estimated bytes each.
+     */
+    private static final long BUDGET = 400;
+
+    private EvaluationCacheTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     * @throws IOException if the temporary files can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        countsHitsOfRepeatedPositions();
+        countsEvictionsOverTheBudget();
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for checking the statistics of the shared cache after a batch with a repeated position.
+     *
+     * @throws IOException if the temporary files can not be written
+     */
+    private static void countsHitsOfRepeatedPositions() throws IOException {
+        Path directory = Files.createTempDirectory("chess-cache-test");
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        Files.write(input, (REPEATED + "\n" + SINGLE + "\n" + REPEATED + "\n" + REPEATED)
+                .getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream standardError = System.err;
+        System.setProperty(EvaluationCache.STATISTICS_PROPERTY, "true");
+        System.setErr(new PrintStream(errors, true, StandardCharsets.US_ASCII));
+        try {
+            Main.solveBatch(input.toString(), output.toString());
+        } finally {
+            System.setErr(standardError);
+            System.clearProperty(EvaluationCache.STATISTICS_PROPERTY);
+            Files.delete(input);
+            Files.delete(output);
+            Files.delete(directory);
+        }
+        EvaluationCache cache = Main.getEvaluationCache();
+        check(cache.getHits() == 2, "expected 2 hits, got " + cache.getHits());
+        check(cache.getMisses() == 2, "expected 2 misses, got " + cache.getMisses());
+        check(cache.size() == 2, "expected 2 entries, got " + cache.size());
+        String printed = errors.toString(StandardCharsets.US_ASCII).trim();
+        check(printed.equals(cache.getStatistics()), "unexpected statistics line: " + printed);
+        check(printed.startsWith("cache hits=2 misses=2 evictions=0 entries=2 "), "unexpected statistics: " + printed);
+    }
+
+    /**
+     * Method for checking that the least recently used entries over the budget are evicted and counted.
+     */
+    private static void countsEvictionsOverTheBudget() {
+        int[] results = new int[4];
+        EvaluationCache cache = new EvaluationCache(BUDGET);
+        for (long hash = 0; hash < 3; hash++) {
+            cache.put(hash, results, results.length);
+        }
+        check(cache.getEvictions() == 0, "evicted within the budget");
+        cache.put(3, results, results.length);
+        check(cache.getEvictions() == 1, "expected 1 eviction, got " + cache.getEvictions());
+        check(!cache.get(0, results, results.length), "the least recently used entry is not evicted");
+        check(cache.get(3, results, results.length), "the newest entry is evicted");
+        check(cache.getHits() == 1 && cache.getMisses() == 1, "unexpected statistics: " + cache.getStatistics());
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
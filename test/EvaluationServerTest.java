@@ -0,0 +1,152 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test of the server mode over a loopback socket.
+ * It sends a valid and an invalid position in one connection and checks that the first one is answered
+ * with the results of a single run, the second one with its error message, and that the server closes
+ * the connection once the client has finished sending.
+ */
+public final class EvaluationServerTest {
+    /**
+     * valid position sent first.
+     */
+    private static final String VALID = "4\n3\nKing White 1 1\nKing Black 4 4\nRook White 2 3\n";
+    /**
+     * position with an invalid board size sent second.
+     */
+    private static final String INVALID = "2\n2\nKing White 1 1\nKing Black 2 2\n";
+    /**
+     * time given to the server to start and to answer in milliseconds.
+     */
+    private static final int TIMEOUT_MILLIS = 10_000;
+    /**
+     * pause between the attempts to connect to the starting server in milliseconds.
+     */
+    private static final long RETRY_MILLIS = 20;
+
+    private EvaluationServerTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     * @throws IOException          if the socket or the temporary files fail
+     * @throws InterruptedException if the waiting for the server is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = findFreePort();
+        Thread server = new Thread(() -> {
+            try {
+                new EvaluationServer(Integer.toString(port)).serve();
+            } catch (IOException e) {
+                throw new IllegalStateException("the server failed", e);
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        String expected = evaluate(VALID) + "\n" + new InvalidBoardSizeException().getMessage() + "\n\n";
+        try (Socket socket = connect(port)) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            OutputStream request = socket.getOutputStream();
+            request.write((VALID + "\n" + INVALID + "\n").getBytes(StandardCharsets.US_ASCII));
+            request.flush();
+            socket.shutdownOutput();
+            String actual = readAll(socket.getInputStream());
+            check(actual.equals(expected), "unexpected answer: " + actual);
+        }
+        System.out.println("passed");
+        // the server never returns and its pooled connection threads are not daemons
+        System.exit(0);
+    }
+
+    /**
+     * Method for finding a free port of the loopback address.
+     *
+     * @return the port
+     * @throws IOException if no port can be bound
+     */
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Method for connecting to the server, retrying while it starts.
+     *
+     * @param port the port of the server
+     * @return the connected socket
+     * @throws IOException          if the server does not accept the connection in time
+     * @throws InterruptedException if the waiting is interrupted
+     */
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Method for reading the stream until the server closes it.
+     *
+     * @param stream the input stream of the socket
+     * @return the read text
+     * @throws IOException if the stream can not be read in time
+     */
+    private static String readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stream.transferTo(bytes);
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Method for evaluating the position by a single run.
+     *
+     * @param position the position in the text format
+     * @return the output of the run
+     * @throws IOException if the temporary files can not be written
+     */
+    private static String evaluate(String position) throws IOException {
+        Path directory = Files.createTempDirectory("chess-server-test");
+        Path input = directory.resolve("input.txt");
+        Path output = directory.resolve("output.txt");
+        try {
+            Files.write(input, position.getBytes(StandardCharsets.US_ASCII));
+            Main.solve(input.toString(), output.toString());
+            return new String(Files.readAllBytes(output), StandardCharsets.US_ASCII);
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test of the incremental changes of the board.
+ * It checks that the moves and captures to the squares outside of the board, the captures of the own square
+ * or of a piece of the same color, and the changes of the pieces not on the board are rejected without changing it,
+ * and that the backend chosen for the position is kept by the changes while the counts stay correct.
+ */
+public final class GridBoardMoveTest {
+    /**
+     * size of the tested board.
+     */
+    private static final int SIZE = 8;
+
+    private GridBoardMoveTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        rejectsTargetsOutsideOfTheBoard();
+        rejectsInvalidCaptures();
+        rejectsPiecesNotOnTheBoard();
+        keepsTheBackendAcrossChanges();
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for checking that the moves and captures outside of the board throw and leave the board unchanged.
+     */
+    private static void rejectsTargetsOutsideOfTheBoard() {
+        GridBoard board = new GridBoard(SIZE);
+        List<ChessPiece> pieces = addPieces(board);
+        ChessPiece rook = pieces.get(2);
+        int moves = board.getCurrentMovesCount(rook);
+        long hash = board.getPositionHash();
+        int[][] targets = {{SIZE + 1, 4}, {0, 4}, {4, 0}, {4, SIZE + 1}, {SIZE + 1, SIZE + 1}};
+        for (int[] target : targets) {
+            PiecePosition position = new PiecePosition(target[0], target[1]);
+            expectRejected(() -> board.movePiece(rook, position), "move to " + position);
+            expectRejected(() -> board.capture(rook, position), "capture on " + position);
+        }
+        check(board.getCurrentMovesCount(rook) == moves, "the rejected moves changed the counts");
+        check(rook.getPosition().getX() == 4 && rook.getPosition().getY() == 4, "the rejected moves moved the rook");
+        checkUnchanged(board, pieces, hash);
+    }
+
+    /**
+     * Method for checking that the captures of the own square and of a piece of the same color
+     * throw and leave the board unchanged.
+     */
+    private static void rejectsInvalidCaptures() {
+        GridBoard board = new GridBoard(SIZE);
+        List<ChessPiece> pieces = addPieces(board);
+        ChessPiece rook = pieces.get(2);
+        long hash = board.getPositionHash();
+        expectRejected(() -> board.capture(rook, new PiecePosition(4, 4)), "capture of the own square");
+        expectRejected(() -> board.capture(rook, new PiecePosition(1, 1)), "capture of the own king");
+        expectRejected(() -> board.capture(pieces.get(3), new PiecePosition(5, 2)), "capture of the own knight");
+        checkUnchanged(board, pieces, hash);
+    }
+
+    /**
+     * Method for checking that the changes of the pieces not on the board, including the pieces
+     * with the positions outside of it, throw and leave the board unchanged.
+     */
+    private static void rejectsPiecesNotOnTheBoard() {
+        GridBoard board = new GridBoard(SIZE);
+        List<ChessPiece> pieces = addPieces(board);
+        long hash = board.getPositionHash();
+        PiecePosition[] positions = {new PiecePosition(SIZE + 1, 4), new PiecePosition(0, 0),
+            new PiecePosition(4, SIZE + 1), new PiecePosition(3, 3), new PiecePosition(4, 4)};
+        for (PiecePosition position : positions) {
+            ChessPiece stranger = ChessPiece.create(PieceType.ROOK, position, PieceColor.WHITE);
+            expectRejected(() -> board.removePiece(stranger), "removal of the rook on " + position);
+            expectRejected(() -> board.movePiece(stranger, new PiecePosition(3, 4)),
+                    "move of the rook on " + position);
+            expectRejected(() -> board.capture(stranger, new PiecePosition(6, 8)),
+                    "capture by the rook on " + position);
+        }
+        checkUnchanged(board, pieces, hash);
+    }
+
+    /**
+     * Method for checking that the board still holds the pieces and counts them as a new board does.
+     *
+     * @param board  the board after the rejected changes
+     * @param pieces the pieces of the board
+     * @param hash   the position hash before the rejected changes
+     */
+    private static void checkUnchanged(GridBoard board, List<ChessPiece> pieces, long hash) {
+        check(board.getPositionHash() == hash, "the rejected changes changed the position hash");
+        int[] expected = evaluateFresh(pieces);
+        int[] actual = board.evaluateAll();
+        for (int i = 0; i < pieces.size(); i++) {
+            ChessPiece piece = pieces.get(i);
+            check(board.getPiece(piece.getPosition()) == piece,
+                    "the rejected changes removed the piece on " + piece.getPosition());
+            check(actual[2 * i] == expected[2 * i] && actual[2 * i + 1] == expected[2 * i + 1]
+                    && board.getCurrentMovesCount(piece) == expected[2 * i]
+                    && board.getCurrentCapturesCount(piece) == expected[2 * i + 1],
+                    "the rejected changes changed the counts of the piece on " + piece.getPosition());
+        }
+    }
+
+    /**
+     * Method for checking that the changes keep the chosen backend and the counts equal to a fresh evaluation.
+     */
+    private static void keepsTheBackendAcrossChanges() {
+        for (BoardBackend backend : BoardBackend.values()) {
+            System.setProperty(Board.BACKEND_PROPERTY, backend.getName());
+            GridBoard board = new GridBoard(SIZE);
+            List<ChessPiece> pieces = addPieces(board);
+            board.evaluateAll();
+            System.clearProperty(Board.BACKEND_PROPERTY);
+            board.movePiece(pieces.get(2), new PiecePosition(4, 6));
+            board.capture(pieces.get(3), new PiecePosition(4, 6));
+            pieces.remove(2);
+            ChessPiece queen = ChessPiece.create(PieceType.QUEEN, new PiecePosition(2, 7), PieceColor.WHITE);
+            board.addPiece(queen);
+            pieces.add(queen);
+            check(board.getBackend() == backend, "the changes dropped the " + backend.getName() + " backend");
+            int[] expected = evaluateFresh(pieces);
+            for (int i = 0; i < pieces.size(); i++) {
+                ChessPiece piece = pieces.get(i);
+                check(board.getCurrentMovesCount(piece) == expected[2 * i]
+                        && board.getCurrentCapturesCount(piece) == expected[2 * i + 1]
+                        && board.getPiecePossibleMovesCount(piece) == expected[2 * i]
+                        && board.getPiecePossibleCapturesCount(piece) == expected[2 * i + 1],
+                        "the " + backend.getName() + " backend counts the changed board wrong");
+            }
+        }
+    }
+
+    /**
+     * Method for adding the kings, a rook, a bishop and a knight to the board.
+     *
+     * @param board the empty board
+     * @return the added pieces in the order of adding
+     */
+    private static List<ChessPiece> addPieces(Board board) {
+        List<ChessPiece> pieces = new ArrayList<>();
+        pieces.add(ChessPiece.create(PieceType.KING, new PiecePosition(1, 1), PieceColor.WHITE));
+        pieces.add(ChessPiece.create(PieceType.KING, new PiecePosition(SIZE, SIZE), PieceColor.BLACK));
+        pieces.add(ChessPiece.create(PieceType.ROOK, new PiecePosition(4, 4), PieceColor.WHITE));
+        pieces.add(ChessPiece.create(PieceType.BISHOP, new PiecePosition(6, 8), PieceColor.BLACK));
+        pieces.add(ChessPiece.create(PieceType.KNIGHT, new PiecePosition(5, 2), PieceColor.BLACK));
+        for (ChessPiece piece : pieces) {
+            board.addPiece(piece);
+        }
+        return pieces;
+    }
+
+    /**
+     * Method for evaluating the pieces on a new board.
+     *
+     * @param pieces the pieces
+     * @return the moves and captures counts of the pieces in their order
+     */
+    private static int[] evaluateFresh(List<ChessPiece> pieces) {
+        Board board = Board.create(SIZE);
+        for (ChessPiece piece : pieces) {
+            board.addPiece(piece.getType(), piece.getColor(), piece.getPosition().getX(),
+                    piece.getPosition().getY());
+        }
+        return board.evaluateAll();
+    }
+
+    /**
+     * Method for checking that the change is rejected with an illegal argument exception.
+     *
+     * @param change      the change of the board
+     * @param description the description of the change
+     */
+    private static void expectRejected(Runnable change, String description) {
+        try {
+            change.run();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new IllegalStateException("the " + description + " is not rejected");
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
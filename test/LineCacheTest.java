@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test of the lazy line cache backend.
+ * On random small boards of every storage it compares the blocker distances of the cache along the eight rays
+ * of every square and the counts of the pieces with a square by square brute force,
+ * first on the loaded position and then after every one of a series of moves, captures, removals and additions,
+ * so the lines listed before a change must be dropped by it.
+ */
+public final class LineCacheTest {
+    /**
+     * number of the random positions of every storage.
+     */
+    private static final int POSITIONS = 150;
+    /**
+     * number of the changes of every position.
+     */
+    private static final int CHANGES = 12;
+    /**
+     * largest size of the random boards.
+     */
+    private static final int MAX_SIZE = 12;
+    /**
+     * number of the kinds of the changes: a move, a capture, a removal and an addition.
+     */
+    private static final int CHANGE_KINDS = 4;
+    /**
+     * seed of the random positions.
+     */
+    private static final long SEED = 23;
+
+    private LineCacheTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (BoardStorage storage : BoardStorage.values()) {
+            for (int position = 0; position < POSITIONS; position++) {
+                int size = Main.MIN_BOARD_SIZE + random.nextInt(MAX_SIZE - Main.MIN_BOARD_SIZE + 1);
+                List<ChessPiece> pieces = BruteForceBoard.randomPieces(random, size, random.nextInt(size * size));
+                System.setProperty(Board.BACKEND_PROPERTY, BoardBackend.LAZY_LINES.getName());
+                GridBoard board = new GridBoard(size, storage);
+                for (ChessPiece piece : pieces) {
+                    board.addPiece(piece);
+                }
+                board.evaluateAll();
+                System.clearProperty(Board.BACKEND_PROPERTY);
+                String description = "the " + storage.getName() + " position " + position;
+                compare(board, pieces, description);
+                for (int change = 0; change < CHANGES; change++) {
+                    String changed = change(board, pieces, random);
+                    compare(board, pieces, description + " after the " + changed);
+                }
+            }
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for making a random change of the board and of the list of its pieces.
+     *
+     * @param board  the board
+     * @param pieces the pieces of the board in the order of adding, null for the removed ones
+     * @param random the source of the randomness
+     * @return the description of the change
+     */
+    private static String change(GridBoard board, List<ChessPiece> pieces, Random random) {
+        int size = board.getSize();
+        PiecePosition square = new PiecePosition(1 + random.nextInt(size), 1 + random.nextInt(size));
+        ChessPiece occupant = board.getPiece(square);
+        List<Integer> present = new ArrayList<>();
+        for (int i = 0; i < pieces.size(); i++) {
+            if (pieces.get(i) != null && pieces.get(i) != occupant) {
+                present.add(i);
+            }
+        }
+        int index = present.isEmpty() ? -1 : present.get(random.nextInt(present.size()));
+        ChessPiece piece = present.isEmpty() ? null : pieces.get(index);
+        switch (piece == null ? CHANGE_KINDS - 1 : random.nextInt(CHANGE_KINDS)) {
+            case 0:
+                if (occupant == null) {
+                    board.movePiece(piece, square);
+                    return "move to " + square;
+                }
+                break;
+            case 1:
+                if (occupant != null && occupant.getColor() != piece.getColor()) {
+                    board.capture(piece, square);
+                    pieces.set(pieces.indexOf(occupant), null);
+                    return "capture on " + square;
+                }
+                break;
+            case 2:
+                if (present.size() > 1) {
+                    board.removePiece(piece);
+                    pieces.set(index, null);
+                    return "removal from " + piece.getPosition();
+                }
+                break;
+            default:
+                break;
+        }
+        if (occupant != null) {
+            return "unchanged board";
+        }
+        PieceType[] types = PieceType.values();
+        PieceColor color = PieceColor.values()[random.nextInt(2)];
+        ChessPiece added = ChessPiece.create(types[1 + random.nextInt(types.length - 1)], square, color);
+        board.addPiece(added);
+        pieces.add(added);
+        return "addition on " + square;
+    }
+
+    /**
+     * Method for comparing the blocker distances and the counts of the board with the brute force.
+     *
+     * @param board       the board
+     * @param pieces      the pieces of the board in the order of adding, null for the removed ones
+     * @param description the description of the position
+     */
+    private static void compare(GridBoard board, List<ChessPiece> pieces, String description) {
+        check(board.getBackend() == BoardBackend.LAZY_LINES, "the backend of " + description + " is changed");
+        RayIndex rays = board.getRayIndex();
+        check(rays instanceof LineCache, "the rays of " + description + " do not come from the line cache");
+        int size = board.getSize();
+        BruteForceBoard expected = new BruteForceBoard(size, pieces);
+        for (int x = 1; x <= size; x++) {
+            for (int y = 1; y <= size; y++) {
+                for (int direction = 0; direction < BruteForceBoard.DIRECTION_XS.length; direction++) {
+                    int dx = BruteForceBoard.DIRECTION_XS[direction];
+                    int dy = BruteForceBoard.DIRECTION_YS[direction];
+                    check(rays.getBlockerDistance(x, y, dx, dy) == expected.getBlockerDistance(x, y, dx, dy),
+                            "the blocker distance from " + x + " " + y + " by " + dx + " " + dy + " in "
+                                    + description + " differs from the brute force");
+                }
+            }
+        }
+        int[] results = board.evaluateAll();
+        for (int i = 0; i < pieces.size(); i++) {
+            ChessPiece piece = pieces.get(i);
+            int moves = 0;
+            int captures = 0;
+            if (piece != null) {
+                int x = piece.getPosition().getX();
+                int y = piece.getPosition().getY();
+                moves = expected.getMoves(x, y).length;
+                captures = expected.getCapturesCount(x, y);
+            }
+            check(results[2 * i] == moves && results[2 * i + 1] == captures,
+                    "the counts of the piece " + i + " in " + description + " differ from the brute force");
+        }
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+/**
+ * Test of the move generation.
+ * On random small boards of every storage it checks that both generateMoves methods and the lazy iterator
+ * give the same destination squares in the same order, that these are the squares of a brute force,
+ * and that their number is the moves count of the piece and fits the buffer of getMaxMovesCount.
+ * The captures count of the piece is compared with the brute force too.
+ */
+public final class MoveGenerationTest {
+    /**
+     * number of the random positions of every storage.
+     */
+    private static final int POSITIONS = 300;
+    /**
+     * largest size of the random boards.
+     */
+    private static final int MAX_SIZE = 12;
+    /**
+     * largest offset of the moves written into the buffers.
+     */
+    private static final int MAX_OFFSET = 5;
+    /**
+     * seed of the random positions.
+     */
+    private static final long SEED = 16;
+
+    private MoveGenerationTest() {
+    }
+
+    /**
+     * Main method of the test.
+     *
+     * @param args command line arguments, not used
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (BoardStorage storage : BoardStorage.values()) {
+            for (int position = 0; position < POSITIONS; position++) {
+                int size = Main.MIN_BOARD_SIZE + random.nextInt(MAX_SIZE - Main.MIN_BOARD_SIZE + 1);
+                List<ChessPiece> pieces = BruteForceBoard.randomPieces(random, size, random.nextInt(size * size));
+                Board board = Board.create(size, storage);
+                for (ChessPiece piece : pieces) {
+                    board.addPiece(piece);
+                }
+                BruteForceBoard expected = new BruteForceBoard(size, pieces);
+                for (ChessPiece piece : pieces) {
+                    String description = "the " + piece.getType().getName() + " on " + piece.getPosition() + " of the "
+                            + storage.getName() + " position " + position;
+                    compare(board, piece, random.nextInt(MAX_OFFSET + 1), expected, description);
+                }
+            }
+        }
+        System.out.println("passed");
+    }
+
+    /**
+     * Method for comparing the generated moves of the piece with each other and with the brute force.
+     *
+     * @param board       the board
+     * @param piece       the piece on the board
+     * @param offset      the offset of the moves in the buffers
+     * @param expected    the brute force board of the same pieces
+     * @param description the description of the piece
+     */
+    private static void compare(Board board, ChessPiece piece, int offset, BruteForceBoard expected,
+                                String description) {
+        int[] array = new int[offset + board.getMaxMovesCount()];
+        int count = board.generateMoves(piece, array, offset);
+        int[] generated = Arrays.copyOfRange(array, offset, offset + count);
+        IntBuffer buffer = IntBuffer.allocate(offset + board.getMaxMovesCount());
+        buffer.position(offset);
+        check(board.generateMoves(piece, buffer) == count && buffer.position() == offset + count,
+                "the buffer of " + description + " gets another number of moves");
+        check(Arrays.equals(Arrays.copyOfRange(buffer.array(), offset, offset + count), generated),
+                "the buffer of " + description + " gets other moves");
+        PrimitiveIterator.OfInt iterator = board.iterateMoves(piece);
+        for (int i = 0; i < count; i++) {
+            check(iterator.hasNext() && iterator.nextInt() == generated[i],
+                    "the iterator of " + description + " gives other moves");
+        }
+        check(!iterator.hasNext(), "the iterator of " + description + " gives more moves");
+        try {
+            iterator.nextInt();
+            throw new IllegalStateException("the ended iterator of " + description + " gives a move");
+        } catch (NoSuchElementException e) {
+            // the iterator has ended
+        }
+        check(count == board.getPiecePossibleMovesCount(piece),
+                "the moves of " + description + " differ from its moves count");
+        check(board.getPiecePossibleCapturesCount(piece)
+                        == expected.getCapturesCount(piece.getPosition().getX(), piece.getPosition().getY()),
+                "the captures count of " + description + " differs from the brute force");
+        int[] sorted = generated.clone();
+        Arrays.sort(sorted);
+        check(Arrays.equals(sorted, expected.getMoves(piece.getPosition().getX(), piece.getPosition().getY())),
+                "the moves of " + description + " differ from the brute force");
+    }
+
+    /**
+     * Method for failing the test if the condition does not hold.
+     *
+     * @param condition the checked condition
+     * @param message   the message of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}